@@ -0,0 +1,167 @@
+/**
+ * KartMatch: GraphGenerator.java
+ *
+ *   Generators of bipartite graphs (pilots, cars) in the CSR format, used by the benchmarks of the matching algorithm.
+ *
+ *   The graphs have nb_u pilots and nb_u cars, split in groups like in a championship: a pilot only sees the cars of
+ *   its own group. The available shapes are:
+ *      - COMPLETE:      every pilot can take every car of its group, as after CustomApplication.reset_race_history().
+ *                       The groups are made smaller above 10k pilots, so that the graph has at most MAX_NB_OF_EDGES.
+ *      - RANDOM_SPARSE: every pilot can take a few random cars of its group.
+ *      - SEASON:        the complete graph, after a number of races have removed the cars already taken by each pilot.
+ *      - CHAINS:        copies of the adversarial graph of HopcroftKarp.Test5(), chained together by parasite edges.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import fr.neuf.perso.pdejoue.kart_match.HopcroftKarp;
+
+public class GraphGenerator
+{
+    public enum Shape { COMPLETE, RANDOM_SPARSE, SEASON, CHAINS };
+
+    public static final int MAX_GROUP_SIZE     = 1000;     // Size of the groups of the COMPLETE and RANDOM_SPARSE graphs
+    public static final int MAX_NB_OF_EDGES    = 10000000; // Edges of the COMPLETE graphs, as many as the largest championship (10k pilots, 1k cars)
+    public static final int SEASON_GROUP_SIZE  = 100;      // Size of the groups of the SEASON graphs
+    public static final int SPARSE_DEGREE      = 8;        // Degree of the vertices of the RANDOM_SPARSE graphs
+
+    public int   nb_u;
+    public int   nb_v;
+    public int[] offsets;
+    public int[] adjacency;
+
+    public GraphGenerator(Shape shape, int nb_u, long seed)
+    {
+        Random random = new Random(seed);
+
+        this.nb_u = nb_u;
+        this.nb_v = nb_u;
+        switch(shape)
+        {
+            case COMPLETE:
+                int group_size = Math.min(Math.min(nb_u, MAX_GROUP_SIZE), MAX_NB_OF_EDGES / nb_u);
+                build_groups(group_size, group_size, random);
+                break;
+            case RANDOM_SPARSE:
+                build_groups(Math.min(nb_u, MAX_GROUP_SIZE), SPARSE_DEGREE, random);
+                break;
+            case SEASON:
+                build_groups(Math.min(nb_u, SEASON_GROUP_SIZE), SEASON_GROUP_SIZE, random);
+                play_races(Math.min(nb_u, SEASON_GROUP_SIZE) / 2, random);
+                break;
+            case CHAINS:
+                build_chains();
+                break;
+        }
+    }
+
+    // Pilots and cars are split in groups of group_size. Each pilot gets degree random cars of its group (all of them
+    // if degree >= group_size).
+    private void build_groups(int group_size, int degree, Random random)
+    {
+        int   nb_edges  = 0;
+        int[] group_car = new int[group_size];
+
+        offsets   = new int[nb_u + 1];
+        adjacency = new int[nb_u * Math.min(degree, group_size)];
+        for(int u = 0; u < nb_u; u++)
+        {
+            int first_v    = (u / group_size) * group_size;
+            int nb_group_v = Math.min(group_size, nb_v - first_v);
+            for(int idx = 0; idx < nb_group_v; idx++)
+            {
+                group_car[idx] = first_v + idx;
+            }
+
+            // Partial Fisher-Yates: the first vertices of the array are a random subset
+            int u_degree = Math.min(degree, nb_group_v);
+            for(int idx = 0; idx < u_degree; idx++)
+            {
+                int swap_idx       = idx + random.nextInt(nb_group_v - idx);
+                int tmp            = group_car[idx];
+                group_car[idx]     = group_car[swap_idx];
+                group_car[swap_idx] = tmp;
+                adjacency[nb_edges++] = group_car[idx];
+            }
+            offsets[u + 1] = nb_edges;
+        }
+    }
+
+    // Simulate a number of races, like CustomApplication does: the matching of each race is removed from the graph.
+    private void play_races(int nb_of_races, Random random)
+    {
+        HopcroftKarp.Workspace workspace = new HopcroftKarp.Workspace(random);
+        int[]                  matched_u = new int[nb_u];
+        int[]                  matched_v = new int[nb_v];
+
+        for(int race = 0; race < nb_of_races; race++)
+        {
+            HopcroftKarp.findMaximumMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, false, true, workspace);
+
+            // Remove the matched edges, compacting the adjacency arrays in place
+            int nb_edges = 0;
+            for(int u = 0; u < nb_u; u++)
+            {
+                int begin = offsets[u];
+                offsets[u] = nb_edges;
+                for(int edge_idx = begin; edge_idx < offsets[u + 1]; edge_idx++)
+                {
+                    if(adjacency[edge_idx] != matched_u[u])
+                    {
+                        adjacency[nb_edges++] = adjacency[edge_idx];
+                    }
+                }
+            }
+            offsets[nb_u] = nb_edges;
+        }
+        adjacency = Arrays.copyOf(adjacency, offsets[nb_u]);
+    }
+
+    // Copies of the 9-vertex graph of HopcroftKarp.Test5(), each copy being linked to the previous one by the same kind of
+    // parasite edges as the ones linking the subgraphs of Test5. The perfect matching stays unique.
+    private void build_chains()
+    {
+        final int   block_size = 9;
+        final int[] own_edges  = { 1, 0, 3, 4, 2, 6, 7, 8, 5 };            // Unique perfect matching of a block
+        int         nb_blocks  = (nb_u + block_size - 1) / block_size;
+
+        nb_u      = nb_blocks * block_size;
+        nb_v      = nb_u;
+        offsets   = new int[nb_u + 1];
+        adjacency = new int[nb_u * 5];
+
+        int nb_edges = 0;
+        for(int u = 0; u < nb_u; u++)
+        {
+            int block   = u / block_size;
+            int local_u = u % block_size;
+            int base    = block * block_size;
+
+            adjacency[nb_edges++] = base + own_edges[local_u];
+
+            // Parasite edges within the block (see Test5)
+            if(local_u >= 2 && local_u <= 4)
+            {
+                adjacency[nb_edges++] = base + 0;
+                adjacency[nb_edges++] = base + 1;
+            }
+            else if(local_u >= 5)
+            {
+                adjacency[nb_edges++] = base + 2;
+                adjacency[nb_edges++] = base + 3;
+                adjacency[nb_edges++] = base + 4;
+            }
+
+            // Parasite edge towards the last subgraph of the previous block
+            if(block > 0 && local_u <= 1)
+            {
+                adjacency[nb_edges++] = base - 1 - local_u;
+            }
+            offsets[u + 1] = nb_edges;
+        }
+        adjacency = Arrays.copyOf(adjacency, nb_edges);
+    }
+}
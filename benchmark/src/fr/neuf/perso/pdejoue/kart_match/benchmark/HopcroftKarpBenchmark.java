@@ -0,0 +1,76 @@
+/**
+ * KartMatch: HopcroftKarpBenchmark.java
+ *
+ *   JMH benchmark of the matching algorithm (primitive implementation of HopcroftKarp.findMaximumMatching).
+ *
+ *   The graphs are built by GraphGenerator, for all combinations of size, shape, and randomization. Each benchmark
+ *   reports the throughput (ops/s) and the distribution of the latency of a single solve (including the p99).
+ *   The allocation rate is reported by the gc profiler (option "-prof gc"). See README.md for how to run it.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.neuf.perso.pdejoue.kart_match.FastRandom;
+import fr.neuf.perso.pdejoue.kart_match.HopcroftKarp;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HopcroftKarpBenchmark
+{
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int nb_of_pilots;
+
+    @Param({"COMPLETE", "RANDOM_SPARSE", "SEASON", "CHAINS"})
+    public GraphGenerator.Shape shape;
+
+    @Param({"true", "false"})
+    public boolean randomize;
+
+    private GraphGenerator         graph;
+    private HopcroftKarp.Workspace workspace;
+    private int[]                  matched_u;
+    private int[]                  matched_v;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        graph     = new GraphGenerator(shape, nb_of_pilots, 42L);
+        workspace = new HopcroftKarp.Workspace(new FastRandom(42L));
+        matched_u = new int[graph.nb_u];
+        matched_v = new int[graph.nb_v];
+    }
+
+    // One solve from scratch, reusing the working memory like CustomApplication does
+    @Benchmark
+    public int findMaximumMatching()
+    {
+        return HopcroftKarp.findMaximumMatching(graph.nb_u, graph.nb_v, graph.offsets, graph.adjacency, matched_u, matched_v, false, randomize, workspace);
+    }
+
+    // One solve warm-started from a greedy matching
+    @Benchmark
+    public int findMaximumMatchingGreedyStart()
+    {
+        HopcroftKarp.greedyMatching(graph.nb_u, graph.nb_v, graph.offsets, graph.adjacency, matched_u, matched_v, randomize, workspace);
+        return HopcroftKarp.findMaximumMatching(graph.nb_u, graph.nb_v, graph.offsets, graph.adjacency, matched_u, matched_v, true, randomize, workspace);
+    }
+}
@@ -0,0 +1,656 @@
+/**
+ * KartMatch: BipartiteEdgeColoring.java
+ *
+ *   Edge coloring of a bipartite graph with as many colors as its maximum degree (which is always possible: Konig's
+ *   theorem). Each color class is a matching, and the classes partition the edges of the graph.
+ *
+ *   The graph is first completed into a regular bipartite multigraph: set U is padded with virtual vertices up to the
+ *   size of set V, and filler edges are added until every vertex has the maximum degree. The regular multigraph is then
+ *   colored by divide and conquer, as in the algorithms of Alon, and of Cole, Ost and Schirra:
+ *      - If the degree d is even, each connected component is walked along an Euler circuit, and its edges are put
+ *        alternately in two halves. Since the circuits of a bipartite graph are of even length, each vertex has d/2
+ *        edges in each half: the two halves are colored independently with d/2 colors each. O(number of edges).
+ *      - If the degree d is odd, a perfect matching is found with the Hopcroft-Karp algorithm (a regular bipartite
+ *        graph has one) and makes one color class. The rest of the graph is regular of even degree d-1.
+ *   The depth of the recursion is O(log d), so the coloring costs O(E log d) plus the matchings of the odd degrees,
+ *   instead of d maximum matchings on the whole graph.
+ *
+ *   Useful information regarding that algorithm can be found there:
+ *      - http://en.wikipedia.org/wiki/Edge_coloring#Algorithms
+ *      - N. Alon, "A simple algorithm for edge-coloring bipartite multigraphs", Information Processing Letters 85 (2003).
+ *      - R. Cole, K. Ost and S. Schirra, "Edge-coloring bipartite multigraphs in O(E log D) time", Combinatorica 21 (2001).
+ *
+ *   Input:
+ *      - The graph (U, V, E) in the compressed sparse row (CSR) format, as for HopcroftKarp: the neighbours of vertex u
+ *        are adjacency[offsets[u]] .. adjacency[offsets[u+1]-1], with offsets[0] = 0.
+ *      - The graph must be simple, and nb_u <= nb_v.
+ *      - The coloring is randomized with the random generator of the workspace.
+ *
+ *   Output: the number of colors nb_colors, and for each color c and each vertex u of U the vertex of V associated with
+ *   u in that color class: color_classes[c * nb_u + u]. It is v for an edge (u, v) of the graph, or -1-v for a filler
+ *   edge. In each class, every vertex of U is associated with a distinct vertex of V. The filler edges of a vertex u go
+ *   to distinct vertices of V which are not neighbours of u in the graph, as far as the degrees of the graph allow it.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class BipartiteEdgeColoring
+{
+    // Working memory of the algorithm. A caller solving many problems in a row can keep one instance and pass it
+    // to each call, so that the arrays are only allocated once. A workspace must not be used by several threads at once.
+    public static class Workspace
+    {
+        private Random                 random;
+        private HopcroftKarp.Workspace matching_workspace;
+        private int[]                  edge_u          = new int[0];      // Endpoints of the edges of the regular multigraph. The edges
+        private int[]                  edge_v          = new int[0];      // of each subproblem are a segment of those arrays.
+        private int[]                  buffer_u        = new int[0];
+        private int[]                  buffer_v        = new int[0];
+        private boolean[]              edge_flag       = new boolean[0];  // Edge walked by the Euler circuits, or edge of the matching
+        private boolean[]              edge_half       = new boolean[0];  // Half of the edge in the Euler partition
+        private int[]                  incident        = new int[0];      // Edges of each vertex (position), degree d entries per vertex
+        private int[]                  cursor          = new int[0];      // Next incident edge of each vertex
+        private int[]                  deficit         = new int[0];      // Number of filler edges of each vertex of V
+        private int[]                  order_u         = new int[0];      // Vertices of U by decreasing degree
+        private int[]                  order_v         = new int[0];      // Vertices of V by increasing deficit
+        private int[]                  block_begin     = new int[0];      // Position in order_v of the first vertex of each deficit
+        private int[]                  filled_by       = new int[0];      // Last vertex of U adjacent to each vertex of V
+        private int[]                  chosen          = new int[0];      // Positions in order_v of the filler edges of a vertex of U
+        private int[]                  parent          = new int[0];      // Alternating path search, see find_alternating_path()
+        private int[]                  queue           = new int[0];
+        private int[]                  visited_u       = new int[0];
+        private int[]                  visited_v       = new int[0];
+        private int[]                  unsuitable      = new int[0];
+        private int                    stamp;                             // Last value marked in visited_u, visited_v or unsuitable
+        private int[]                  color_order     = new int[0];
+        private int[]                  match_offsets   = new int[0];      // Subgraph of an odd degree, in the CSR format
+        private int[]                  match_adjacency = new int[0];
+        private int[]                  matched_u       = new int[0];
+        private int[]                  matched_v       = new int[0];
+
+        public Workspace()
+        {
+            this(new FastRandom());
+        }
+
+        // The generator is shared with the maximum matchings of the odd degrees
+        public Workspace(Random random)
+        {
+            this.random             = random;
+            this.matching_workspace = new HopcroftKarp.Workspace(random);
+        }
+
+        public Random getRandom()
+        {
+            return random;
+        }
+
+        // Make sure the arrays are large enough for a regular multigraph of that size. They are never shrunk.
+        private void reserve(int nb_vertices, int nb_edges)
+        {
+            if(edge_u.length < nb_edges)
+            {
+                edge_u          = new int[nb_edges];
+                edge_v          = new int[nb_edges];
+                buffer_u        = new int[nb_edges];
+                buffer_v        = new int[nb_edges];
+                edge_flag       = new boolean[nb_edges];
+                edge_half       = new boolean[nb_edges];
+                incident        = new int[2 * nb_edges];
+                match_adjacency = new int[nb_edges];
+            }
+            if(deficit.length < nb_vertices)
+            {
+                deficit         = new int[nb_vertices];
+                order_u         = new int[nb_vertices];
+                order_v         = new int[nb_vertices];
+                block_begin     = new int[nb_vertices + 1];
+                filled_by       = new int[nb_vertices];
+                chosen          = new int[nb_vertices];
+                parent          = new int[nb_vertices];
+                queue           = new int[nb_vertices];
+                visited_u       = new int[nb_vertices];
+                visited_v       = new int[nb_vertices];
+                unsuitable      = new int[nb_vertices];
+                color_order     = new int[nb_vertices];
+                cursor          = new int[2 * nb_vertices];
+                match_offsets   = new int[nb_vertices + 1];
+                matched_u       = new int[nb_vertices];
+                matched_v       = new int[nb_vertices];
+            }
+        }
+    };
+
+    public  static int solve(int nb_u, int nb_v, int[] offsets, int[] adjacency, int[] color_classes)
+    {
+        return solve(nb_u, nb_v, offsets, adjacency, color_classes, new Workspace());
+    }
+
+    // Array color_classes must hold at least nb_colors * nb_u entries: nb_u * nb_v entries are always enough, since the
+    // maximum degree of a simple graph is at most nb_v. Returns nb_colors, the maximum degree of the graph.
+    public  static int solve(int       nb_u,
+                             int       nb_v,
+                             int[]     offsets,
+                             int[]     adjacency,
+                             int[]     color_classes,
+                             Workspace workspace)
+    {
+        if(nb_u > nb_v)
+        {
+            throw new IllegalArgumentException("More vertices in U than in V: " + nb_u + " > " + nb_v);
+        }
+
+        // Maximum degree. The degree of the vertices of V is counted in the deficit array.
+        int nb_real_edges = offsets[nb_u];
+        workspace.reserve(nb_v, 0);
+        int[] deficit = workspace.deficit;
+        Arrays.fill(deficit, 0, nb_v, 0);
+        int degree = 0;
+        for(int u = 0; u < nb_u; u++)
+        {
+            degree = Math.max(degree, offsets[u + 1] - offsets[u]);
+        }
+        for(int edge_idx = 0; edge_idx < nb_real_edges; edge_idx++)
+        {
+            degree = Math.max(degree, ++deficit[adjacency[edge_idx]]);
+        }
+        if(degree == 0)
+        {
+            return 0;
+        }
+
+        // The regular multigraph: nb_v vertices on each side, each of them of that degree
+        int nb_vertices = nb_v;
+        int nb_edges    = nb_vertices * degree;
+        workspace.reserve(nb_vertices, nb_edges);
+        deficit         = workspace.deficit;
+        int[] edge_u    = workspace.edge_u;
+        int[] edge_v    = workspace.edge_v;
+        for(int u = 0; u < nb_u; u++)
+        {
+            for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1]; edge_idx++)
+            {
+                edge_u[edge_idx] = u;
+                edge_v[edge_idx] = adjacency[edge_idx];
+            }
+        }
+        add_filler_edges(nb_u, nb_vertices, degree, offsets, workspace);
+
+        // Randomize the order of the edges, which is kept by the Euler partitions, and the order of the colors
+        Random random = workspace.random;
+        for(int edge_idx = nb_edges - 1; edge_idx > 0; edge_idx--)
+        {
+            int swap_idx     = random.nextInt(edge_idx + 1);
+            int tmp_u        = edge_u[edge_idx];
+            int tmp_v        = edge_v[edge_idx];
+            edge_u[edge_idx] = edge_u[swap_idx];
+            edge_v[edge_idx] = edge_v[swap_idx];
+            edge_u[swap_idx] = tmp_u;
+            edge_v[swap_idx] = tmp_v;
+        }
+        int[] color_order = workspace.color_order;
+        for(int color = 0; color < degree; color++)
+        {
+            color_order[color] = color;
+        }
+        HopcroftKarp.shuffle(color_order, 0, degree, random);
+
+        color(0, nb_edges, nb_u, nb_vertices, degree, 0, color_classes, workspace);
+
+        return degree;
+    }
+
+    //
+    // Class specific methods
+    //
+
+    // Complete the graph (the first offsets[nb_u] edges of the workspace) into a regular multigraph: the vertices of U
+    // that miss edges, including the virtual vertices nb_u .. nb_vertices-1, are paired with the vertices of V that miss
+    // edges. On input, the deficit array holds the degree of each vertex of V.
+    // The filler edges are marked by their vertex of V, stored as -1-v (i.e. ~v).
+    // A filler edge of a vertex u of U is a repeat in one color class, so it should neither go to a neighbour of u (u
+    // would be associated twice with that vertex of V) nor to a vertex of V already paired with u. As in the Havel-Hakimi
+    // construction of a graph with given degrees, each vertex u of U is paired with the vertices of V which suit u and
+    // miss the most edges (ties in a random order), so that no vertex of V is left with many missing edges for the last
+    // vertices of U. The real vertices of U are paired first, by decreasing degree since they have the fewest vertices of
+    // V to choose from. If no vertex of V suits a real vertex u, the filler edges of the previous vertices of U are moved
+    // along an alternating path (see find_alternating_path()). A vertex of V which does not suit u is only taken if there
+    // is no such path.
+    private static void add_filler_edges(int nb_u, int nb_vertices, int degree, int[] offsets, Workspace workspace)
+    {
+        int[] deficit     = workspace.deficit;
+        int[] order_u     = workspace.order_u;
+        int[] order_v     = workspace.order_v;
+        int[] block_begin = workspace.block_begin;
+        int[] filled_by   = workspace.filled_by;
+        int[] chosen      = workspace.chosen;
+        int[] edge_u      = workspace.edge_u;
+        int[] edge_v      = workspace.edge_v;
+        int   edge_idx    = offsets[nb_u];
+
+        // Counting sort of the real vertices of U by decreasing degree (i.e. increasing number of missing edges),
+        // followed by the virtual ones
+        Arrays.fill(block_begin, 0, degree + 1, 0);
+        for(int u = 0; u < nb_u; u++)
+        {
+            block_begin[degree - (offsets[u + 1] - offsets[u])]++;
+        }
+        prefix_sum(block_begin, degree);
+        for(int u = 0; u < nb_u; u++)
+        {
+            order_u[block_begin[degree - (offsets[u + 1] - offsets[u])]++] = u;
+        }
+        for(int u = nb_u; u < nb_vertices; u++)
+        {
+            order_u[u] = u;
+        }
+        Arrays.fill(workspace.visited_u, 0, nb_vertices, 0);
+        Arrays.fill(workspace.visited_v, 0, nb_vertices, 0);
+        Arrays.fill(workspace.unsuitable, 0, nb_vertices, 0);
+        workspace.stamp = 0;
+
+        // Counting sort of the vertices of V, in a random order, by increasing deficit. The vertices of deficit d are
+        // then at the positions block_begin[d] .. block_begin[d+1]-1 of order_v.
+        Arrays.fill(block_begin, 0, degree + 1, 0);
+        for(int v = 0; v < nb_vertices; v++)
+        {
+            deficit[v]   = degree - deficit[v];
+            filled_by[v] = -1;
+            chosen[v]    = v;
+            block_begin[deficit[v]]++;
+        }
+        HopcroftKarp.shuffle(chosen, 0, nb_vertices, workspace.random);
+        prefix_sum(block_begin, degree);
+        for(int idx = 0; idx < nb_vertices; idx++)
+        {
+            order_v[block_begin[deficit[chosen[idx]]]++] = chosen[idx];
+        }
+        for(int d = degree; d > 0; d--)
+        {
+            block_begin[d] = block_begin[d - 1];
+        }
+        block_begin[0] = 0;
+
+        for(int u_idx = 0; u_idx < nb_vertices; u_idx++)
+        {
+            int u       = order_u[u_idx];
+            int missing = degree - ((u < nb_u) ? offsets[u + 1] - offsets[u] : 0);
+            if(missing == 0)
+            {
+                continue;
+            }
+            if(u < nb_u)
+            {
+                for(int idx = offsets[u]; idx < offsets[u + 1]; idx++)
+                {
+                    filled_by[edge_v[idx]] = u;
+                }
+            }
+
+            // The vertices of V which suit u and miss the most edges
+            int nb_chosen = 0;
+            for(int position = nb_vertices - 1; position >= block_begin[1] && nb_chosen < missing; position--)
+            {
+                if(filled_by[order_v[position]] != u)
+                {
+                    filled_by[order_v[position]] = u;
+                    chosen[nb_chosen++]          = position;
+                }
+            }
+            for(int idx = nb_chosen - 1; idx >= 0; idx--)       // By increasing position, see decrease_deficit()
+            {
+                edge_u[edge_idx]   = u;
+                edge_v[edge_idx++] = ~order_v[chosen[idx]];
+                decrease_deficit(chosen[idx], workspace);
+            }
+            missing -= nb_chosen;
+
+            // Not enough of them: the filler edges of the previous vertices of U are moved to free a vertex of V which
+            // suits u or, if that is not possible, the vertex of V that misses the most edges is taken anyway
+            while(missing > 0)
+            {
+                int v = (u < nb_u) ? find_alternating_path(u, nb_u, nb_vertices, edge_idx, offsets, workspace) : -1;
+                if(v == -1)
+                {
+                    v = order_v[nb_vertices - 1];
+                    decrease_deficit(nb_vertices - 1, workspace);
+                }
+                filled_by[v]       = u;
+                edge_u[edge_idx]   = u;
+                edge_v[edge_idx++] = ~v;
+                missing--;
+            }
+        }
+    }
+
+    // Look for a vertex of V that suits the real vertex u of U, when none of them misses edges any more: breadth-first
+    // search of an alternating path u -> w1, (u2, w1) -> w2, ..., (uk, wk-1) -> wk, where each filler edge (ui, wi-1)
+    // of a previous vertex of U can be moved to a vertex wi which suits ui, and the last vertex wk misses edges. The
+    // filler edges along the path are moved, the deficit of wk is decreased, and w1 is returned (-1 if there is no path).
+    // This is an augmenting path in the flow network of the filler edges, so the search finds one if the filler edges
+    // placed so far can be rearranged to make room for u. O(nb_vertices^2) at worst, but it is only needed on graphs
+    // where most vertices of U are adjacent to most vertices of V, and the search usually ends much earlier.
+    private static int find_alternating_path(int u, int nb_u, int nb_vertices, int end, int[] offsets, Workspace workspace)
+    {
+        int[] edge_u     = workspace.edge_u;
+        int[] edge_v     = workspace.edge_v;
+        int[] deficit    = workspace.deficit;
+        int[] filled_by  = workspace.filled_by;
+        int[] parent     = workspace.parent;
+        int[] queue      = workspace.queue;
+        int[] visited_u  = workspace.visited_u;
+        int[] visited_v  = workspace.visited_v;
+        int[] unsuitable = workspace.unsuitable;
+        int   begin      = offsets[nb_u];
+
+        // Filler edges of each vertex of V, in the CSR format. The arrays of the matchings of the odd degrees are not
+        // used yet.
+        int[] filler_offsets   = workspace.match_offsets;
+        int[] filler_positions = workspace.match_adjacency;
+        Arrays.fill(filler_offsets, 0, nb_vertices + 1, 0);
+        for(int position = begin; position < end; position++)
+        {
+            filler_offsets[~edge_v[position]]++;
+        }
+        for(int v = 1; v < nb_vertices; v++)
+        {
+            filler_offsets[v] += filler_offsets[v - 1];
+        }
+        filler_offsets[nb_vertices] = end - begin;
+        for(int position = end - 1; position >= begin; position--)
+        {
+            filler_positions[--filler_offsets[~edge_v[position]]] = position;
+        }
+
+        // The vertices of V which suit u are the roots of the search
+        int search = ++workspace.stamp;
+        int head   = 0;
+        int tail   = 0;
+        visited_u[u] = search;
+        for(int v = 0; v < nb_vertices; v++)
+        {
+            if(filled_by[v] != u)
+            {
+                visited_v[v]  = search;
+                parent[v]     = -1;
+                queue[tail++] = v;
+            }
+        }
+
+        while(head < tail)
+        {
+            int w = queue[head++];
+            if(deficit[w] > 0)
+            {
+                // Move the filler edges along the path, from its end
+                for(int position = 0; position < nb_vertices; position++)
+                {
+                    if(workspace.order_v[position] == w)
+                    {
+                        decrease_deficit(position, workspace);
+                        break;
+                    }
+                }
+                while(parent[w] != -1)
+                {
+                    int position     = parent[w];
+                    int previous     = ~edge_v[position];
+                    edge_v[position] = ~w;
+                    w                = previous;
+                }
+                return w;
+            }
+
+            for(int idx = filler_offsets[w]; idx < filler_offsets[w + 1]; idx++)
+            {
+                int position = filler_positions[idx];
+                int u2       = edge_u[position];
+                if(visited_u[u2] == search)
+                {
+                    continue;
+                }
+                visited_u[u2] = search;
+
+                // The vertices of V which do not suit u2: its neighbours, and its filler edges (which are contiguous)
+                int mark = ++workspace.stamp;
+                if(u2 < nb_u)
+                {
+                    for(int edge_idx = offsets[u2]; edge_idx < offsets[u2 + 1]; edge_idx++)
+                    {
+                        unsuitable[edge_v[edge_idx]] = mark;
+                    }
+                }
+                for(int edge_idx = position; edge_idx >= begin && edge_u[edge_idx] == u2; edge_idx--)
+                {
+                    unsuitable[~edge_v[edge_idx]] = mark;
+                }
+                for(int edge_idx = position + 1; edge_idx < end && edge_u[edge_idx] == u2; edge_idx++)
+                {
+                    unsuitable[~edge_v[edge_idx]] = mark;
+                }
+
+                for(int v = 0; v < nb_vertices; v++)
+                {
+                    if(visited_v[v] != search && unsuitable[v] != mark)
+                    {
+                        visited_v[v]  = search;
+                        parent[v]     = position;
+                        queue[tail++] = v;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Turn the counts of the values 0 .. max_value into the positions of their first element in the sorted order
+    private static void prefix_sum(int[] counts, int max_value)
+    {
+        for(int count = 0, value = 0; value <= max_value; value++)
+        {
+            int nb_of_elements = counts[value];
+            counts[value]      = count;
+            count             += nb_of_elements;
+        }
+    }
+
+    // Decrease the deficit of the vertex of V at that position in order_v, which stays sorted: the vertex is swapped with
+    // the first one of the same deficit, which becomes the last one of the deficit below. Only the positions of both
+    // vertices change, so that other positions, greater than that one, remain valid.
+    private static void decrease_deficit(int position, Workspace workspace)
+    {
+        int[] order_v     = workspace.order_v;
+        int   v           = order_v[position];
+        int   first       = workspace.block_begin[workspace.deficit[v]]++;
+        order_v[position] = order_v[first];
+        order_v[first]    = v;
+        workspace.deficit[v]--;
+    }
+
+    // Color the edges begin .. end-1 of the workspace, which make a regular multigraph of that degree, with the colors
+    // first_color .. first_color + degree - 1. The edges are moved inside that segment as it is split: an edge is only
+    // identified by its position, so that the subproblems stay contiguous in memory.
+    private static void color(int begin, int end, int nb_u, int nb_vertices, int degree, int first_color, int[] color_classes, Workspace workspace)
+    {
+        if(degree == 1)
+        {
+            output_class(begin, end, nb_u, first_color, color_classes, workspace);
+        }
+        else if((degree & 1) != 0)
+        {
+            // One perfect matching, moved at the beginning of the segment
+            extract_perfect_matching(begin, end, nb_vertices, degree, workspace);
+            output_class(begin, begin + nb_vertices, nb_u, first_color, color_classes, workspace);
+            color(begin + nb_vertices, end, nb_u, nb_vertices, degree - 1, first_color + 1, color_classes, workspace);
+        }
+        else
+        {
+            int middle = euler_partition(begin, end, nb_vertices, degree, workspace);
+            color(begin, middle, nb_u, nb_vertices, degree / 2, first_color, color_classes, workspace);
+            color(middle, end, nb_u, nb_vertices, degree / 2, first_color + degree / 2, color_classes, workspace);
+        }
+    }
+
+    // The edges begin .. end-1 are a perfect matching: they make one color class. The virtual vertices of U are ignored.
+    private static void output_class(int begin, int end, int nb_u, int color, int[] color_classes, Workspace workspace)
+    {
+        int[] edge_u      = workspace.edge_u;
+        int[] edge_v      = workspace.edge_v;
+        int   class_begin = workspace.color_order[color] * nb_u;
+        for(int idx = begin; idx < end; idx++)
+        {
+            if(edge_u[idx] < nb_u)
+            {
+                color_classes[class_begin + edge_u[idx]] = edge_v[idx];        // Already -1-v for a filler edge
+            }
+        }
+    }
+
+    // Split the segment of the edges into two halves, each of them regular of degree/2, along Euler circuits. The first
+    // half is moved at the beginning of the segment. Returns the end of the first half.
+    private static int euler_partition(int begin, int end, int nb_vertices, int degree, Workspace workspace)
+    {
+        int[]     edge_u   = workspace.edge_u;
+        int[]     edge_v   = workspace.edge_v;
+        boolean[] walked   = workspace.edge_flag;
+        boolean[] half     = workspace.edge_half;
+        int[]     incident = workspace.incident;
+        int[]     cursor   = workspace.cursor;
+
+        // Incident edges: vertex u of U is vertex u, vertex v of V is vertex nb_vertices + v. Each has degree entries.
+        for(int vertex = 0; vertex < 2 * nb_vertices; vertex++)
+        {
+            cursor[vertex] = vertex * degree;
+        }
+        for(int idx = begin; idx < end; idx++)
+        {
+            int v = edge_v[idx];
+            incident[cursor[edge_u[idx]]++]                             = idx;
+            incident[cursor[nb_vertices + ((v >= 0) ? v : ~v)]++]       = idx;
+            walked[idx]                                                 = false;
+        }
+        for(int vertex = 0; vertex < 2 * nb_vertices; vertex++)
+        {
+            cursor[vertex] = vertex * degree;
+        }
+
+        // Walk the circuits from each vertex in turn. The walk can only get stuck at its starting vertex, since all the
+        // degrees are even, and after an even number of edges: the halves alternate along the circuits.
+        boolean current_half = false;
+        for(int start = 0; start < 2 * nb_vertices; start++)
+        {
+            int vertex = start;
+            while(true)
+            {
+                int vertex_end = (vertex + 1) * degree;
+                while(cursor[vertex] < vertex_end && walked[incident[cursor[vertex]]])
+                {
+                    cursor[vertex]++;
+                }
+                if(cursor[vertex] == vertex_end)
+                {
+                    break;
+                }
+                int idx       = incident[cursor[vertex]++];
+                walked[idx]   = true;
+                half[idx]     = current_half;
+                current_half  = !current_half;
+                if(vertex < nb_vertices)
+                {
+                    int v  = edge_v[idx];
+                    vertex = nb_vertices + ((v >= 0) ? v : ~v);
+                }
+                else
+                {
+                    vertex = edge_u[idx];
+                }
+            }
+        }
+
+        return partition(begin, end, half, workspace);
+    }
+
+    // Move a perfect matching of the segment of the edges, regular of an odd degree, at the beginning of the segment
+    private static void extract_perfect_matching(int begin, int end, int nb_vertices, int degree, Workspace workspace)
+    {
+        int[]     edge_u      = workspace.edge_u;
+        int[]     edge_v      = workspace.edge_v;
+        boolean[] in_matching = workspace.edge_flag;
+        int[]     incident    = workspace.incident;
+        int[]     cursor      = workspace.cursor;
+        int[]     offsets     = workspace.match_offsets;
+        int[]     adjacency   = workspace.match_adjacency;
+
+        // The subgraph in the CSR format. The edge of each entry of the adjacency is kept in the incident array.
+        for(int u = 0; u <= nb_vertices; u++)
+        {
+            offsets[u] = u * degree;
+        }
+        for(int u = 0; u < nb_vertices; u++)
+        {
+            cursor[u] = u * degree;
+        }
+        for(int idx = begin; idx < end; idx++)
+        {
+            int v    = edge_v[idx];
+            int slot = cursor[edge_u[idx]]++;
+            adjacency[slot]  = (v >= 0) ? v : ~v;
+            incident[slot]   = idx;
+            in_matching[idx] = false;
+        }
+
+        int matching_size = HopcroftKarp.findMaximumMatching(nb_vertices, nb_vertices, offsets, adjacency, workspace.matched_u, workspace.matched_v, false, true, workspace.matching_workspace);
+        if(matching_size != nb_vertices)
+        {
+            throw new IllegalStateException("No perfect matching in a regular bipartite graph: " + matching_size + " < " + nb_vertices);
+        }
+
+        // One edge per vertex of U: the first entry of its adjacency to its matched vertex (there can be parallel edges)
+        for(int u = 0; u < nb_vertices; u++)
+        {
+            int slot = offsets[u];
+            while(adjacency[slot] != workspace.matched_u[u])
+            {
+                slot++;
+            }
+            in_matching[incident[slot]] = true;
+        }
+
+        partition(begin, end, in_matching, workspace);
+    }
+
+    // Stable partition of the segment of the edges: the edges flagged true first. Returns the end of those edges.
+    private static int partition(int begin, int end, boolean[] flag, Workspace workspace)
+    {
+        int[] edge_u    = workspace.edge_u;
+        int[] edge_v    = workspace.edge_v;
+        int[] buffer_u  = workspace.buffer_u;
+        int[] buffer_v  = workspace.buffer_v;
+        int   first_end = begin;
+        int   nb_others = 0;
+        for(int idx = begin; idx < end; idx++)
+        {
+            // Written at both places, so that there is no branch to mispredict: the flags of a half are random
+            int u     = edge_u[idx];
+            int v     = edge_v[idx];
+            int first = flag[idx] ? 1 : 0;
+            edge_u[first_end]   = u;
+            edge_v[first_end]   = v;
+            buffer_u[nb_others] = u;
+            buffer_v[nb_others] = v;
+            first_end          += first;
+            nb_others          += 1 - first;
+        }
+        System.arraycopy(buffer_u, 0, edge_u, first_end, nb_others);
+        System.arraycopy(buffer_v, 0, edge_v, first_end, nb_others);
+        return first_end;
+    }
+}
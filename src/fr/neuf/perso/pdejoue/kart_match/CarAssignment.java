@@ -0,0 +1,151 @@
+/**
+ * KartMatch: CarAssignment.java
+ *
+ *   Compact result of the generation of a race: the car assigned to each pilot of the race.
+ *
+ *   The pilots of a race are the pilots of one group. They are stored in a single array indexed by pilot index, which
+ *   only covers the range of pilots of the group [first_pilot, first_pilot + car_of_pilot.length). Car number 0 means
+ *   that the pilot is not in the race. A bit set marks the repeats, i.e. the pilots that were not in the maximum
+ *   matching and were therefore assigned to a car they may have already driven.
+ *
+ *   All lookups are O(1), and a copy is two array copies. Once frozen, an assignment cannot be modified anymore: it can
+ *   then be shared, for instance between the current race and the race history, instead of being copied.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.BitSet;
+
+public class CarAssignment
+{
+    public static final long NO_SEED = Long.MIN_VALUE;  // Seed of a race which cannot be replayed, see isReplayable()
+
+    private int     first_pilot;
+    private int[]   car_of_pilot;                   // Car number of each pilot of the range, or 0
+    private BitSet  repeat;                         // Bit (pilot - first_pilot) is set if the assignment of the pilot is a repeat
+    private int     nb_of_pilots  = 0;
+    private long    seed          = 0;              // Seed of the random generator, so that the race can be replayed
+    private boolean frozen        = false;
+
+    // An empty assignment for the pilots first_pilot .. first_pilot + nb_of_slots - 1
+    public CarAssignment(int first_pilot, int nb_of_slots)
+    {
+        this.first_pilot  = first_pilot;
+        this.car_of_pilot = new int[nb_of_slots];
+        this.repeat       = new BitSet(nb_of_slots);
+    }
+
+    // Mutable copy
+    public CarAssignment clone()
+    {
+        CarAssignment copy = new CarAssignment(first_pilot, car_of_pilot.length);
+
+        System.arraycopy(car_of_pilot, 0, copy.car_of_pilot, 0, car_of_pilot.length);
+        copy.repeat.or(repeat);
+        copy.nb_of_pilots = nb_of_pilots;
+        copy.seed         = seed;
+
+        return copy;
+    }
+
+    // Make the assignment immutable. Returns this object.
+    public CarAssignment freeze()
+    {
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    public void setCarOfPilot(int pilot_index, int car_number, boolean is_repeat)
+    {
+        if(frozen)
+        {
+            throw new IllegalStateException("The car assignment is frozen");
+        }
+        if(car_number <= 0 || !is_in_range(pilot_index))
+        {
+            throw new IllegalArgumentException("Invalid pilot " + pilot_index + " or car " + car_number);
+        }
+
+        int slot = pilot_index - first_pilot;
+        if(car_of_pilot[slot] == 0)
+        {
+            nb_of_pilots++;
+        }
+        car_of_pilot[slot] = car_number;
+        repeat.set(slot, is_repeat);
+    }
+
+    public void setSeed(long seed)
+    {
+        if(frozen)
+        {
+            throw new IllegalStateException("The car assignment is frozen");
+        }
+        this.seed = seed;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    // False for a race which was not generated from its seed alone, e.g. a race of a season plan: the race cannot be
+    // generated again by CustomApplication.generate_random_pilot_to_car_mapping(group_nb, seed).
+    public boolean isReplayable()
+    {
+        return seed != NO_SEED;
+    }
+
+    // Car number of the pilot, or 0 if the pilot is not in the race
+    public int getCarOfPilot(int pilot_index)
+    {
+        return is_in_range(pilot_index) ? car_of_pilot[pilot_index - first_pilot] : 0;
+    }
+
+    public boolean hasPilot(int pilot_index)
+    {
+        return (getCarOfPilot(pilot_index) != 0);
+    }
+
+    // True if the pilot was assigned to a car outside of the maximum matching
+    public boolean isRepeat(int pilot_index)
+    {
+        return is_in_range(pilot_index) && repeat.get(pilot_index - first_pilot);
+    }
+
+    public int getNbOfPilots()
+    {
+        return nb_of_pilots;
+    }
+
+    public int getNbOfRepeats()
+    {
+        return repeat.cardinality();
+    }
+
+    // The pilots of the race are in the range getFirstPilot() .. getEndPilot() - 1
+    public int getFirstPilot()
+    {
+        return first_pilot;
+    }
+
+    public int getEndPilot()
+    {
+        return first_pilot + car_of_pilot.length;
+    }
+
+    private boolean is_in_range(int pilot_index)
+    {
+        return (pilot_index >= first_pilot && pilot_index < first_pilot + car_of_pilot.length);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * KartMatch: CarPool.java
+ *
+ *   The set of the cars selected for the championship, described by their car numbers 1..max_car_number.
+ *
+ *   The set is a bitset, so that a car is selected, unselected or looked up in O(1). The selected cars are also
+ *   numbered in increasing order of their car numbers: that is the car index, used by the matching algorithms. The
+ *   translation from a car number to its car index is a rank, and the reverse translation is a select:
+ *      - rank:     the number of cars selected before each word of the bitset is kept in an array, and the rank of a car
+ *                  is that count plus the number of bits set before it in its word. O(1).
+ *      - select:   the car numbers of the selected cars are kept in increasing order in an array. O(1).
+ *   Those two arrays are updated in O(max_car_number / 64 + size()) at the first query after a change of the set.
+ *
+ *   Not thread-safe.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+public class CarPool
+{
+    private int     max_car_number;
+    private long[]  words;                          // Bit n is set if car number n is selected
+    private int     size          = 0;
+
+    private boolean index_valid   = false;
+    private int[]   word_rank;                      // Number of selected cars in the words before
+    private int[]   numbers;                        // Car numbers of the selected cars, in increasing order
+
+    // An empty pool for the cars 1..max_car_number
+    public CarPool(int max_car_number)
+    {
+        reset(max_car_number);
+    }
+
+    public void reset(int max_car_number)
+    {
+        this.max_car_number = max_car_number;
+        words               = new long[(max_car_number >> 6) + 1];
+        word_rank           = new int[words.length];
+        numbers             = new int[max_car_number];
+        size                = 0;
+        index_valid         = false;
+    }
+
+    public int getMaxCarNumber()
+    {
+        return max_car_number;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean contains(int car_number)
+    {
+        return (car_number >= 1 && car_number <= max_car_number && (words[car_number >> 6] & (1L << car_number)) != 0);
+    }
+
+    // Select all the cars 1..max_car_number
+    public void selectAll()
+    {
+        for(int idx = 0; idx < words.length; idx++)
+        {
+            words[idx] = -1L;
+        }
+        words[0]                  &= ~1L;                                  // No car number 0
+        words[words.length - 1]   &= (-1L >>> (63 - (max_car_number & 63)));
+        size                       = max_car_number;
+        index_valid                = false;
+    }
+
+    // Returns false if the car was already selected, or if the car number is out of range
+    public boolean select(int car_number)
+    {
+        if(car_number < 1 || car_number > max_car_number || contains(car_number))
+        {
+            return false;
+        }
+        words[car_number >> 6] |= (1L << car_number);
+        size++;
+        index_valid = false;
+        return true;
+    }
+
+    // Returns false if the car was not selected
+    public boolean unselect(int car_number)
+    {
+        if(!contains(car_number))
+        {
+            return false;
+        }
+        words[car_number >> 6] &= ~(1L << car_number);
+        size--;
+        index_valid = false;
+        return true;
+    }
+
+    // Car index of a selected car (rank), or -1 if the car is not selected
+    public int indexOf(int car_number)
+    {
+        if(!contains(car_number))
+        {
+            return -1;
+        }
+        update_index();
+        return word_rank[car_number >> 6] + Long.bitCount(words[car_number >> 6] & ((1L << car_number) - 1));
+    }
+
+    // Car number of a car index (select)
+    public int get(int car_index)
+    {
+        if(car_index < 0 || car_index >= size)
+        {
+            throw new IndexOutOfBoundsException("Car index " + car_index + ", size " + size);
+        }
+        update_index();
+        return numbers[car_index];
+    }
+
+    // The car numbers of the selected cars, in increasing order. The array must not be modified, and only its first
+    // size() entries are valid.
+    public int[] getNumbers()
+    {
+        update_index();
+        return numbers;
+    }
+
+    // The bitset: bit n of word n / 64 is set if car number n is selected. The array must not be modified.
+    public long[] getWords()
+    {
+        return words;
+    }
+
+    private void update_index()
+    {
+        if(index_valid)
+        {
+            return;
+        }
+
+        int count = 0;
+        for(int idx = 0; idx < words.length; idx++)
+        {
+            word_rank[idx] = count;
+            long word = words[idx];
+            while(word != 0)
+            {
+                numbers[count++] = (idx << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        index_valid = true;
+    }
+}
@@ -62,6 +62,7 @@ public class CarsSelectionActivity extends Activity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_cars_selection);
         main_application = (CustomApplication)getApplication();
+        main_application.awaitRestore();                  // The race history may still be restored in the background
         
         // Setup action bar.
         setupActionBar();
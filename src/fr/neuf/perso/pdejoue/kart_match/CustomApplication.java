@@ -6,25 +6,31 @@
  */
 package fr.neuf.perso.pdejoue.kart_match;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.app.Application;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.util.SparseIntArray;
+import android.content.res.Configuration;
+import android.os.Handler;
 import android.view.ViewGroup.LayoutParams;
 import android.webkit.WebView;
 import android.widget.LinearLayout;
@@ -32,12 +38,29 @@ import android.widget.LinearLayout;
 @SuppressLint("UseSparseArrays")
 public class CustomApplication extends Application  
 {
-    private final static String PILOTS_FILE = "pilotes.txt";
+    private final static String PILOTS_FILE      = "pilotes.txt";
+    private final static String PILOTS_JOURNAL    = "pilotes.journal";   // See PilotRegistry.java
+    private final static String RACE_JOURNAL_FILE = "races.bin";        // See RaceJournal.java
     
-    private ArrayList<String>  pilot_names = new  ArrayList<String>();              // Image of the internal save file PILOTS_FILE 
+    // Limits of the championship. The cost of the generation of a race is proportional to the number of edges of the bipartite
+    // graph (pilots, cars), at most nb_of_pilots * nb_of_cars when all the groups are solved at once: the setup of each group
+    // only reads the pilots of that group. With 10k pilots and 1k cars (10M edges, 10 groups), on a single core, the first race
+    // of all the groups was measured at 0.12 to 0.36 s (up to 36 ns per edge, the solver being warmed up in the background,
+    // see warm_up_solver()) and the next ones at 0.08 to 0.2 s; a race of one group at 14 to 60 ms. A race asked for right
+    // after the setup of the championship also waits for the end of the background solve, which takes 0.5 to 1 s.
+    // MAX_NB_OF_EDGES is derived from the cost of the first race, so that every race takes less than RACE_TIME_BUDGET_MS.
+    // MAX_NB_OF_PILOTS and MAX_NB_OF_CARS only bound the numbers entered in StartActivity.
+    public final static long RACE_TIME_BUDGET_MS  = 800;
+    public final static long NS_PER_EDGE          = 40;
+    public final static long MAX_NB_OF_EDGES      = RACE_TIME_BUDGET_MS * 1000000L / NS_PER_EDGE;      // 20M edges
+    public final static long GRAND_PRIX_TIME_BUDGET_MS = 2000;         // See getMaxNbOfGrandPrixRaces()
+    public final static int  MAX_NB_OF_PILOTS     = 10000;
+    public final static int  MAX_NB_OF_CARS       = 1000;
     
-    public  ArrayList<Integer> car_numbers = new  ArrayList<Integer>();             // Associates the car index with the actual car number, i.e. the set
-                                                                                    // V of the bipartite graph passed to the Hopcroft-Karp algorithm.
+    private PilotRegistry      pilot_names = null;                                  // Image of the internal save file PILOTS_FILE 
+    
+    public  CarPool            car_pool    = new CarPool(0);                        // The selected cars, numbered by car index in increasing order of car number,
+                                                                                    // i.e. the set V of the bipartite graph passed to the matching algorithms.
     
     public  ArrayList<Integer> pilot_group = new  ArrayList<Integer>();             // Associates a pilot to its group. Group number starts at 1
     
@@ -45,16 +68,38 @@ public class CustomApplication extends Application
     public  int max_nb_of_cars    = 0;      // Set by StartActivity.java
     private int nb_of_groups      = 0;      // Set by PilotsCarsValidateActivity.java
     
-    private ArrayList<RaceDetails>                race_history         = null;
-    private HashMap<Integer, ArrayList<Integer>>  pilot_preferred_cars = null;      // Bipartite graph that associates each pilot with its preferred cars
-                                                                                    // Cars are described by their car number
+    private RaceHistoryIndex        race_history            = null;                 // Races in order, indexed by group and by pilot
+    private PreferredCarsMatrix     preferred_cars          = new PreferredCarsMatrix();    // Bipartite graph that associates each pilot with its preferred cars
+                                                                                            // (one bit per pair pilot, car number)
+    private GroupIndex              group_index             = null;                 // Pilots of each group, kept up to date with pilot_group
+    private DynamicMatching         live_matching           = null;                 // Maximum matching of each group on the graph preferred_cars,
+                                                                                    // kept up to date as the championship is edited
+    private RaceJournal             race_journal            = null;                 // Durable copy of the championship and of the race history
+    private CountDownLatch          history_restored        = new CountDownLatch(0);    // Open once the race history is restored, see awaitRestore()
+    private CountDownLatch          live_matching_solved    = new CountDownLatch(0);    // Open once the background thread is done, see await_live_matching()
+    private Handler                 ui_handler              = null;                 // Runs the callbacks of onLiveMatchingReady() on the UI thread
+    private ArrayList<Runnable>     live_matching_callbacks = new ArrayList<Runnable>();    // See onLiveMatchingReady(), UI thread only
+    private RaceHistorySource       race_history_source     = null;                 // See getRaceHistorySource()
+    private UndoLog                 undo_log                = new UndoLog();        // Changes of the championship in progress, see undo() and redo()
+    
+    public CarAssignment random_matching;                  // A random matching (used only by NewRaceFinalActivity.java)
+    
+    // Solvers for the random matchings. They are kept from one race to the next to avoid reallocations.
+    private final static int PARALLEL_MIN_NB_OF_PILOTS = 256;      // Below that number of pilots, the groups are not worth solving concurrently
+    
+    private GroupSolver     main_solver       = new GroupSolver();
+    private GroupSolver[]   group_solvers     = new GroupSolver[0];  // One solver per group, used by the concurrent solve
+    private ExecutorService solver_executor   = null;
+    private FastRandom      seed_generator    = new FastRandom();   // Seeds the random stream of each solve
+    private int[]           car_index         = new int[0];          // Associates the car number with the car index in car_pool (-1 if not selected)
+    private int[]           car_numbers_array = new int[0];          // Associates the car index with the car number (copy of car_pool)
     
-    public HopcroftKarp.Result random_matching;            // A random matching (used only by NewRaceFinalActivity.java)
+    private volatile SolverMetrics solver_metrics = null;           // Metrics of the last solves, null if their collection is disabled
     
     
     public int getActualNbOfCars()
     {
-        return car_numbers.size();
+        return car_pool.size();
     }
     
     @Override
@@ -66,50 +111,248 @@ public class CustomApplication extends Application
         //
         // Data structure inits
         //
-        race_history         = new ArrayList<RaceDetails>();
-        pilot_preferred_cars = new HashMap<Integer, ArrayList<Integer>>();
+        race_history         = new RaceHistoryIndex();
+        ui_handler           = new Handler();          // onCreate() runs on the UI thread
         
         //
-        // Initial read of file PILOTS_FILE, if the file does not exist is is created
+        // Initial read of file PILOTS_FILE and of its journal
         //
-
-        FileInputStream file_in = null;
         
-        try 
+        pilot_names = new PilotRegistry(new File(getFilesDir(), PILOTS_FILE), new File(getFilesDir(), PILOTS_JOURNAL));
+        try
         {
-            file_in = openFileInput(PILOTS_FILE);
+            pilot_names.load();
         } 
-        catch (FileNotFoundException e) 
+        catch (IOException e) 
+        {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        }
+        
+        //
+        // Restore the championship in progress, if any (the process may have been killed in the middle of it). Only the
+        // header of the journal is read here: the races and the graph (pilots, cars) are restored in the background, since
+        // they take about 200 ms with 10k pilots and 200 races, then the live matching is solved. See awaitRestore().
+        //
+        
+        race_journal = new RaceJournal(new File(getFilesDir(), RACE_JOURNAL_FILE), MAX_NB_OF_PILOTS, MAX_NB_OF_CARS);
+        try
         {
-            try 
+            if(race_journal.open())
             {
-                // If file does not exist, create it
-                openFileOutput(PILOTS_FILE, Context.MODE_PRIVATE);
-                file_in = openFileInput(PILOTS_FILE);
+                restore_championship();
+                update_car_index();
+                
+                final int restored_nb_of_pilots   = nb_of_pilots;
+                final int restored_max_nb_of_cars = max_nb_of_cars;
+                final int restored_nb_of_groups   = nb_of_groups;
+                history_restored = new CountDownLatch(1);
+                start_background_thread(new Runnable()
+                    {
+                        public void run()
+                        {
+                            DynamicMatching matching = null;
+                            try
+                            {
+                                restore_race_history(restored_nb_of_pilots, restored_max_nb_of_cars);
+                                matching = live_matching;
+                            }
+                            finally
+                            {
+                                history_restored.countDown();
+                            }
+                            solve_all_groups(matching, restored_nb_of_groups);
+                            warm_up_solver(restored_nb_of_groups);
+                        }
+                    }, "RaceJournal");
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
     
-            } 
-            catch (FileNotFoundException e1) 
+    // Wait until the race history is restored. Every Activity but StartActivity calls it in its onCreate(), before it uses
+    // the race history, the groups or the selected cars: until then, the restore thread is the only one to access them.
+    // StartActivity only changes nb_of_pilots and max_nb_of_cars (the restore thread works on a copy of them) before it
+    // calls initCarNumbers(), which waits as well.
+    public void awaitRestore()
+    {
+        await_uninterruptibly(history_restored);
+    }
+    
+    // Wait until the live matching of every group is solved. The first solve of the groups of a championship takes 0.3 to
+    // 0.6 s with 10k pilots and 1k cars, so it is done in the background after the restore and after reset_race_history(),
+    // while the user looks at the race history, followed by a throwaway race (see warm_up_solver()). Called before every
+    // access to the live matching and every change of the graph preferred_cars, of the groups or of the car index, which the
+    // background thread reads. The Activities which must not wait check isLiveMatchingReady() or use onLiveMatchingReady().
+    private void await_live_matching()
+    {
+        await_uninterruptibly(live_matching_solved);
+    }
+    
+    public boolean isLiveMatchingReady()
+    {
+        return (live_matching_solved.getCount() == 0);
+    }
+    
+    // Run the callback on the UI thread once the live matching of every group is solved: at once if it already is, otherwise
+    // when the background thread is done. Called from the UI thread.
+    public void onLiveMatchingReady(Runnable callback)
+    {
+        if(isLiveMatchingReady())
+        {
+            callback.run();
+        }
+        else
+        {
+            live_matching_callbacks.add(callback);
+        }
+    }
+    
+    // Posted to the UI thread by the background thread when it is done. Another background thread may have been started
+    // in between: its callbacks then wait for it.
+    private Runnable run_live_matching_callbacks = new Runnable()
+    {
+        public void run()
+        {
+            if(isLiveMatchingReady())
             {
-                // TODO Auto-generated catch block
-                e1.printStackTrace();
-            }    
+                ArrayList<Runnable> callbacks = new ArrayList<Runnable>(live_matching_callbacks);
+                live_matching_callbacks.clear();
+                for(Runnable callback : callbacks)
+                {
+                    callback.run();
+                }
+            }
         }
+    };
+    
+    // Wait until the latch is open. An interrupt does not stop the wait, since the caller would then access the data of the
+    // background thread while it runs: it is set again once the latch is open, for the caller to handle it.
+    private static void await_uninterruptibly(CountDownLatch latch)
+    {
+        boolean interrupted = false;
+        while(true)
+        {
+            try
+            {
+                latch.await();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Run the task in a background thread. await_live_matching() waits for the end of the task, then the callbacks of
+    // onLiveMatchingReady() are run. The previous task must be over.
+    private void start_background_thread(final Runnable task, String name)
+    {
+        final CountDownLatch solved = new CountDownLatch(1);
+        live_matching_solved = solved;
+        Thread thread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        solved.countDown();
+                        ui_handler.post(run_live_matching_callbacks);
+                    }
+                }
+            }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private void start_solving_live_matching()
+    {
+        final DynamicMatching matching  = live_matching;
+        final int             nb_groups = nb_of_groups;
+        update_car_index();
+        start_background_thread(new Runnable()
+            {
+                public void run()
+                {
+                    solve_all_groups(matching, nb_groups);
+                    warm_up_solver(nb_groups);
+                }
+            }, "DynamicMatching");
+    }
+    
+    // The matching of a group is solved when it is first queried
+    private static void solve_all_groups(DynamicMatching matching, int nb_of_groups)
+    {
+        for(int group_nb = 1; group_nb <= nb_of_groups; group_nb++)
+        {
+            matching.getMatchingSize(group_nb);
+        }
+    }
+    
+    // The first race of the process is the slowest one, until the code of the solver is optimized by the runtime: with 10k
+    // pilots and 1k cars, 150 ms for one group and 1.2 s for all the groups at once, against 40 ms and 0.1 to 0.4 s afterwards.
+    // The matching of the first group is solved and dropped in the background, which also sizes the buffers of main_solver.
+    // The car index must be up to date: it is not written until the background thread is done (see update_car_index()).
+    private void warm_up_solver(int nb_of_groups)
+    {
+        if(nb_of_groups > 0)
+        {
+            main_solver.warm_up(1);
+        }
+    }
+    
+    // Restore the championship from the header of the journal
+    private void restore_championship()
+    {
+        nb_of_pilots   = race_journal.getNbOfPilots();
+        max_nb_of_cars = race_journal.getMaxNbOfCars();
+        nb_of_groups   = race_journal.getNbOfGroups();
         
-        BufferedReader reader = new BufferedReader(new InputStreamReader(file_in));
-        
+        car_pool.reset(max_nb_of_cars);
+        for(int car_number = 1; car_number <= max_nb_of_cars; car_number++)
+        {
+            if(race_journal.isCarSelected(car_number))
+            {
+                car_pool.select(car_number);
+            }
+        }
+        pilot_group.clear();
+        for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
+        {
+            pilot_group.add(race_journal.getPilotGroup(pilot_index));
+        }
+        update_group_index();
+    }
+    
+    // Restore the race history from the journal, then build the graph (pilots, cars). Runs in restore_thread.
+    private void restore_race_history(int nb_of_pilots, int max_nb_of_cars)
+    {
+        race_history.clear();
+        undo_log.clear();
         try
         {
-            String pilot_name;
-            while((pilot_name = reader.readLine()) != null)
+            for(RaceDetails rd : race_journal.readRaces())
             {
-                pilot_names.add(pilot_name);
+                race_history.add(rd);
             }
-        } 
-        catch (IOException e) 
+        }
+        catch (IOException e)
         {
-            // TODO Auto-generated catch block
             e.printStackTrace();
         }
+        init_pilot_preferred_cars(nb_of_pilots, max_nb_of_cars);
     }
     
     public void about_dialog(Context context)
@@ -193,7 +436,7 @@ public class CustomApplication extends Application
             return;
         }
         
-        // Look for the same name already in the list
+        // Look for the same name already in the list (hash index)
         int match_index = pilot_names.indexOf(name);
         
         if(isDefaultPilotName(name))                                    // Attempt to set a default name
@@ -227,77 +470,71 @@ public class CustomApplication extends Application
         }
         else
         {
-            // In case index >= pilot_names.size(), need to pad the array list with empty strings
-            int idx = pilot_names.size();
-            while(idx <= index)
-            {
-                pilot_names.add("");        // Add empty string at index 'idx'
-                idx++;
-            }
-        
-            // Will not raise IndexOutOfBoundException because the element exists
+            // In case index >= pilot_names.size(), the list is padded with empty strings
             pilot_names.set(index,  name);
         }
         
-        // Rewrite save file according to the new state of array pilot_names
-        regenerate_pilots_file();
+        // The change is saved in the background (see PilotRegistry.java)
         
     }
     
     public void initCarNumbers()
     {
-        car_numbers.clear();
+        awaitRestore();
+        await_live_matching();
         
-        // Initialize the ArrayList with the car numbers
-        for(int num = 1; num <= max_nb_of_cars; num++)
-        {
-            car_numbers.add(num);
-        }
+        // A new championship is being set up: the live matching and the undo log of the previous one are dropped, so that
+        // the selection of the cars changes neither that matching nor the journal of the previous championship. The live
+        // matching is built again for the new championship by reset_race_history().
+        live_matching = null;
+        undo_log.clear();
+        
+        // All the car numbers are selected
+        car_pool.reset(max_nb_of_cars);
+        car_pool.selectAll();
     }
 
     public boolean isCarSelected(int car_number)
     {
-        return (car_numbers.indexOf(car_number) != -1);
+        return car_pool.contains(car_number);
     }
     
     public void unselectCar(int car_number)
     {
-        if(car_number >= 1 && car_number <= max_nb_of_cars)
-        {
-            int match_index;
-            if((match_index = car_numbers.indexOf(car_number)) != -1)
-            {
-                car_numbers.remove(match_index);
-            }
-        }        
+        set_car_selected(car_number, false);
     }
     
     public void selectCar(int car_number)
     {
-        if(isCarSelected(car_number))
+        // No effect if the car is already selected, or out of range
+        set_car_selected(car_number, true);
+    }
+    
+    // Returns false if the selection of the car did not change. The live matching and the journal only follow the
+    // selection while a championship is running (see initCarNumbers()).
+    private boolean set_car_selected(int car_number, boolean selected)
+    {
+        await_live_matching();
+        
+        if(!(selected ? car_pool.select(car_number) : car_pool.unselect(car_number)))
         {
-            return;     // Early return if already in list
+            return false;
         }
-        
-        if(car_number >= 1 && car_number <= max_nb_of_cars)
+        if(live_matching != null)
         {
-            int index = 0;
-            while(index < car_numbers.size() && car_numbers.get(index) < car_number)
-            {
-                index++;
-            }
-            if(index == car_numbers.size())     // Insert at the end of the list
+            live_matching.setActive(car_number, selected);
+            try
             {
-                car_numbers.add(car_number);
+                race_journal.setCarSelected(car_number, selected);
             }
-            else                                // Insert in the middle of the list
+            catch (IOException e)
             {
-                car_numbers.add(index, car_number);
+                e.printStackTrace();
             }
         }
+        return true;
     }
     
-    
     public void deletePilotName(int index) throws FileNotFoundException
     {
         if(index < 0)
@@ -320,23 +557,13 @@ public class CustomApplication extends Application
             }
         }
         
-        // Rewrite save file according to the new state of array pilot_names
-        regenerate_pilots_file();
+        // The change is saved in the background (see PilotRegistry.java)
     }
     
+    // Rewrite the save file according to the state of pilot_names. It is done in the background.
     public void regenerate_pilots_file() throws FileNotFoundException
     {
-        // Open empty back up file
-        PrintWriter writer  = new PrintWriter(openFileOutput(PILOTS_FILE , Context.MODE_PRIVATE));
-        
-        // Copy list
-        for(String s: pilot_names)
-        {
-            writer.println(s);
-        }
-        
-        // Close file
-        writer.close();
+        pilot_names.compact();
     }
     
     public int  getNbOfGroups()
@@ -353,6 +580,7 @@ public class CustomApplication extends Application
         
         nb_of_groups = 1;
         pilot_group.clear();
+        pilot_group.ensureCapacity(nb_of_pilots);
         
         int pilot_index = 0;
         int car_counter = 0;
@@ -370,6 +598,52 @@ public class CustomApplication extends Application
         }
         
         // At the end of the previous loop, nb_of_groups is set to the correct value, i.e. the minimal number of groups that is required
+        
+        update_group_index();
+        
+        // The live matching is built again with the race history
+        live_matching = null;
+        undo_log.clear();
+    }
+    
+    private void update_group_index()
+    {
+        group_index = new GroupIndex(nb_of_groups, pilot_group);
+    }
+    
+    // Move a pilot to another group
+    public void setPilotGroup(int pilot_index, int group_nb)
+    {
+        int from_group = pilot_group.get(pilot_index);
+        if(group_nb < 1 || group_nb > getNbOfGroups() || group_nb == from_group)
+        {
+            return;
+        }
+        move_pilot(pilot_index, group_nb);
+        if(live_matching != null)
+        {
+            undo_log.recordPilotMoved(pilot_index, from_group, group_nb);
+        }
+    }
+    
+    private void move_pilot(int pilot_index, int group_nb)
+    {
+        await_live_matching();
+        
+        group_index.move(pilot_index, group_nb);
+        pilot_group.set(pilot_index, group_nb);
+        if(live_matching != null)
+        {
+            live_matching.setPart(pilot_index, group_nb);
+        }
+        try
+        {
+            race_journal.setPilotGroup(pilot_index, group_nb);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
     }
     
     public int getGroupSize(int group_nb)
@@ -378,15 +652,23 @@ public class CustomApplication extends Application
         {
             return 0;
         }
-        int count = 0;
-        for(int num : pilot_group)
+        return group_index.getSize(group_nb);
+    }
+    
+    // The pilots of the group in increasing order: the first getGroupSize(group_nb) entries of the array, which must not be modified
+    public int[] getGroupMembers(int group_nb)
+    {
+        if(group_nb < 1 || group_nb > getNbOfGroups())
         {
-            if(num == group_nb)
-            {
-                count++;
-            }
+            return new int[0];
         }
-        return count;        
+        return group_index.getMembers(group_nb);
+    }
+    
+    // The championship can be run if the generation of a race is fast enough (see MAX_NB_OF_EDGES)
+    public boolean isChampionshipSizeOK()
+    {
+        return ((long)nb_of_pilots * getActualNbOfCars() <= MAX_NB_OF_EDGES);
     }
     
     public boolean isGroupSizeOK(int group_nb)
@@ -398,24 +680,21 @@ public class CustomApplication extends Application
         return (getGroupSize(group_nb) <= getActualNbOfCars());               
     }
     
-    public boolean allGroupSizesOK()
+    // True if each pilot of the group can be given a car not driven yet in the championship. Otherwise the generation
+    // of the next race of the group assigns some pilots to a car they have already driven.
+    public boolean isGroupMatchingPerfect(int group_nb)
     {
-        // Count number of pilot for all groups
-        int[] count_array = new int[getNbOfGroups()];
-        Arrays.fill(count_array, 0);
-        for(int num : pilot_group)
-        {
-            count_array[num-1]++;
-        }
-        
-        boolean ret_bool = true;
-        
-        for(int group_nb = 1; group_nb <= getNbOfGroups(); group_nb++)
+        if(group_nb < 1 || group_nb > getNbOfGroups() || live_matching == null)
         {
-            ret_bool &= (count_array[group_nb-1] <= getActualNbOfCars());
+            return false;
         }
-        
-        return ret_bool;
+        await_live_matching();
+        return live_matching.isPerfect(group_nb);
+    }
+    
+    public boolean allGroupSizesOK()
+    {
+        return (getNbOfGroups() == 0 || group_index.getMaxSize() <= getActualNbOfCars());
     }
     
     public int getRaceHistorySize()
@@ -423,58 +702,128 @@ public class CustomApplication extends Application
         return race_history.size();
     }
     
-    public ArrayList<String> getRaceHistoryList()
+    // Data source of the race history screens. The labels of the races are formatted on demand.
+    public RaceHistorySource getRaceHistorySource()
     {
-        ArrayList<String>   list = new ArrayList<String>();
-        
-        for(RaceDetails rd : race_history)
+        if(race_history_source == null)
         {
-            list.add(getResources().getString(R.string.group_capitalize) + " " + Integer.toString(rd.group_nb) + ", " + getResources().getString(R.string.race) + " " + Integer.toString(rd.race_nb));
+            race_history_source = new RaceHistorySource(this);
         }
-        
-        return list;
+        return race_history_source;
+    }
+    
+    // The labels of the race history are localized: a new source is built, with the new locale, by the next Activity which
+    // shows the race history (the Activities are recreated after a change of configuration).
+    @Override
+    public void onConfigurationChanged(Configuration new_config)
+    {
+        super.onConfigurationChanged(new_config);
+        race_history_source = null;
     }
     
     public int getNextRaceNb(int group_nb)
     {
-        int race_nb = 1;
+        return race_history.getNbOfRaces(group_nb) + 1;
+    }
+    
+    public void reset_race_history()
+    {
+        await_live_matching();
         
-        for(RaceDetails rd : race_history)
+        race_history.clear();
+        undo_log.clear();
+        
+        init_pilot_preferred_cars(nb_of_pilots, max_nb_of_cars);
+        start_solving_live_matching();
+        
+        try
         {
-            if(rd.group_nb == group_nb)
-            {
-                race_nb++;
-            }
+            race_journal.reset(nb_of_pilots, max_nb_of_cars, nb_of_groups, car_pool, pilot_group);
+            race_journal.sync();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
         }
-        
-        return race_nb;
     }
     
-    public void reset_race_history()
+    // Build the bipartite graph (pilots, cars) from the race history: every pilot can take every selected car, except the
+    // cars already assigned to that pilot by the maximum matching of a race. The matrix of the previous championship is
+    // reused if it is large enough. The sizes are parameters, since the restore thread cannot read the fields.
+    private void init_pilot_preferred_cars(int nb_of_pilots, int max_nb_of_cars)
     {
-        race_history.clear();
-        pilot_preferred_cars.clear();
+        int nb_of_cars = getActualNbOfCars();
         
+        // All the selected cars (bulk copy of the car pool), then the races are applied
+        preferred_cars.reset(nb_of_pilots, max_nb_of_cars);
         for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
         {
-            ArrayList<Integer> new_car_set = new ArrayList<Integer>();
-            pilot_preferred_cars.put(pilot_index, new_car_set);
-            for(int car_index = 0; car_index < getActualNbOfCars(); car_index++)
-            {
-                new_car_set.add(car_numbers.get(car_index));
-            }          
-        }       
+            preferred_cars.setRow(pilot_index, car_pool);
+        }
+        for(RaceDetails rd : race_history)
+        {
+            preferred_cars.applyRace(rd.pilot_to_car_mapping);
+        }
+        
+        // Live matching: the matching of each group is computed when it is first queried
+        int[] selected_cars = car_pool.getNumbers();
+        live_matching = new DynamicMatching(nb_of_pilots, max_nb_of_cars + 1, nb_of_groups, preferred_cars);
+        for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
+        {
+            live_matching.setPart(pilot_index, pilot_group.get(pilot_index));
+        }
+        for(int car_index = 0; car_index < nb_of_cars; car_index++)
+        {
+            live_matching.setActive(selected_cars[car_index], true);
+        }
+    }
+    
+    public void save_in_race_history(int group_nb, int race_nb, CarAssignment random_matching)
+    {
+        add_to_race_history(group_nb, race_nb, random_matching);
+        sync_race_journal();
     }
     
-    public void save_in_race_history(int group_nb, int race_nb, HopcroftKarp.Result random_matching)
+    // Same as above, without forcing the journal to the storage
+    private void add_to_race_history(int group_nb, int race_nb, CarAssignment random_matching)
     {
         RaceDetails rd = new RaceDetails();
         
         rd.group_nb             = group_nb;
         rd.race_nb              = race_nb;
-        rd.pilot_to_car_mapping = random_matching.clone();
+        rd.seed                 = random_matching.getSeed();
+        rd.pilot_to_car_mapping = random_matching.freeze();         // Shared, not copied: it cannot be modified anymore
         
+        push_race(rd);
+        undo_log.recordRaceAdded(rd);
+    }
+    
+    // Append a race to the race history and to the journal. The preferred cars are not updated.
+    private void push_race(RaceDetails rd)
+    {
         race_history.add(rd);
+        
+        try
+        {
+            race_journal.append(rd);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+    
+    // Force the latest changes of the journal to the storage
+    private void sync_race_journal()
+    {
+        try
+        {
+            race_journal.sync();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
     }
     
     public RaceDetails get_race_history(int index)
@@ -486,73 +835,663 @@ public class CustomApplication extends Application
     {
         if(race_history.size() > 0)
         {
-            RaceDetails rd = race_history.get(race_history.size()-1);
+            undo_log.recordRaceRemoved(pop_race());
+            sync_race_journal();
+        }
+    }
+    
+    // Remove the last race from the race history and from the journal, and give its cars back to its pilots
+    private RaceDetails pop_race()
+    {
+        RaceDetails rd = race_history.removeLast();
+        
+        update_pilot_preferred_cars_reverse(rd.pilot_to_car_mapping);
+        
+        try
+        {
+            race_journal.removeLastRace();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        
+        return rd;
+    }
+    
+    public boolean canUndo()
+    {
+        return undo_log.canUndo();
+    }
+    
+    public boolean canRedo()
+    {
+        return undo_log.canRedo();
+    }
+    
+    // Undo the last change of the championship in progress: a race, or a move of a pilot. Each step costs
+    // O(number of pilots in the race) at most, whatever the length of the history. Returns false if there is nothing to undo.
+    public boolean undo()
+    {
+        UndoLog.Step step = undo_log.undo();
+        if(step == null)
+        {
+            return false;
+        }
+        apply_step(step, false);
+        return true;
+    }
+    
+    // Redo the last undone change. Returns false if there is nothing to redo.
+    public boolean redo()
+    {
+        UndoLog.Step step = undo_log.redo();
+        if(step == null)
+        {
+            return false;
+        }
+        apply_step(step, true);
+        return true;
+    }
+    
+    // Apply a step of the undo log, forward (redo) or backward (undo). The steps are applied in the reverse order of
+    // their recording, so a race added is always the last race of the history when it is undone.
+    private void apply_step(UndoLog.Step step, boolean forward)
+    {
+        switch(step.kind)
+        {
+            case UndoLog.RACE_ADDED:
+            case UndoLog.RACE_REMOVED:
+                if(forward == (step.kind == UndoLog.RACE_ADDED))
+                {
+                    push_race(step.race);
+                    update_pilot_preferred_cars(step.race.pilot_to_car_mapping);
+                }
+                else
+                {
+                    pop_race();
+                }
+                break;
+            case UndoLog.PILOT_MOVED:
+                move_pilot(step.index, forward ? step.to_group : step.from_group);
+                break;
+        }
+        sync_race_journal();
+    }
+    
+    // The collection of the metrics of the solvers is disabled by default. When enabled, the metrics of the last solves
+    // are kept in a rolling registry, which can be dumped with dump_solver_metrics().
+    public void setSolverMetricsEnabled(boolean enabled)
+    {
+        if(!enabled)
+        {
+            solver_metrics = null;
+        }
+        else if(solver_metrics == null)
+        {
+            solver_metrics = new SolverMetrics();
+        }
+    }
+    
+    public SolverMetrics getSolverMetrics()
+    {
+        return solver_metrics;
+    }
+    
+    public String dump_solver_metrics()
+    {
+        SolverMetrics metrics = solver_metrics;
+        return (metrics != null) ? metrics.dump() : "";
+    }
+    
+    // The metrics of the solver can only be collected in the debug builds (see RaceHistoryActivity)
+    public boolean isDebuggable()
+    {
+        return ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+    }
+    
+    // Make sure an array has at least the requested size. Its content is not preserved.
+    private static int[] reserve(int[] array, int size)
+    {
+        return (array.length >= size) ? array : new int[size];
+    }
+    
+    // Solver for the random matching of one group. It owns the buffers used to describe the subgraph of the group in the
+    // CSR format and the working memory of the matching algorithms, including its own random generator, so that
+    // several instances can run concurrently on different groups. It also owns the memory used to assign a car to the
+    // pilots left unmatched when the matching is not perfect, and the memory used to plan a whole season.
+    private class GroupSolver
+    {
+        private FastRandom             random          = new FastRandom();
+        private HopcroftKarp.Workspace workspace       = new HopcroftKarp.Workspace(random);
+        private MatcherSelector        matcher         = new MatcherSelector(workspace);
+        private HopcroftKarp.Stats     stats           = new HopcroftKarp.Stats();
+        private int[]                  group_pilots    = new int[0];          // Pilots of the group (set U of the bipartite graph), view on the group index
+        private int[]                  group_offsets   = new int[1];          // Bipartite graph of the group, in the CSR format
+        private int[]                  group_adjacency = new int[0];
+        private int[]                  group_matched_u = new int[0];
+        private int[]                  group_matched_v = new int[0];
+        
+        private MinCostAssignment.Workspace assignment_workspace = new MinCostAssignment.Workspace();
+        private int[]                       unmatched_pilots     = new int[0];                // Unmatched pilots (index in group_pilots), i.e. the rows of the cost matrix
+        private int[]                       free_cars            = new int[0];                // Free cars (car index), i.e. the columns of the cost matrix
+        private int[]                       pilot_row            = new int[0];                // Pilot index --> row of the cost matrix (-1 if none)
+        private int[]                       car_col              = new int[0];                // Car number --> column of the cost matrix (-1 if none)
+        private int[]                       assignment_cost      = new int[0];
+        private int[]                       assignment           = new int[0];
+        
+        private BipartiteEdgeColoring.Workspace coloring_workspace = new BipartiteEdgeColoring.Workspace(random);
+        private int[]                           season_classes     = new int[0];        // Color classes of the season, see plan_season()
+        private int[]                           season_order       = new int[0];
+        private int[]                           repeat_count       = new int[0];
+        
+        // Solve the random matching for one group. The subgraph of that group is built directly in the CSR format.
+        // The car index must be up to date (see update_car_index()). The matching only depends on the seed and
+        // on the bipartite graph (pilots, cars).
+        public CarAssignment solve(int group_nb, long seed)
+        {
+            int nb_of_cars = getActualNbOfCars();
+            
+            random.setSeed(seed);
+            
+            // Metrics, if requested
+            SolverMetrics metrics    = solver_metrics;
+            long          start_time = 0;
+            if(metrics != null)
+            {
+                start_time = System.nanoTime();
+                stats.reset();
+            }
+            matcher.setStats((metrics != null) ? stats : null);
+            
+            int nb_of_group_pilots = getGroupSize(group_nb);
+            int nb_of_edges        = build_group_graph(group_nb);
+            group_matched_u = reserve(group_matched_u, nb_of_group_pilots);
+            group_matched_v = reserve(group_matched_v, nb_of_cars);
+            
+            // The previous races of the group have removed their edges from the graph, so the previous matching cannot
+            // be reused as is: cold start, the selected algorithm runs its own pre-matching pass if it is worth it.
+            int matching_size = matcher.findMaximumMatching(nb_of_group_pilots, nb_of_cars, group_offsets, group_adjacency, group_matched_u, group_matched_v, false, true);
+            
+            CarAssignment result = new_group_assignment(nb_of_group_pilots);
+            for(int u = 0; u < nb_of_group_pilots; u++)
+            {
+                if(group_matched_u[u] != -1)
+                {
+                    result.setCarOfPilot(group_pilots[u], car_numbers_array[group_matched_u[u]], false);
+                }
+            }
+            result.setSeed(seed);
+            
+            if(matching_size < nb_of_group_pilots)
+            {
+                long assignment_start_time = (metrics != null) ? System.nanoTime() : 0;
+                assign_unmatched_pilots(nb_of_group_pilots, nb_of_cars, result);
+                if(metrics != null)
+                {
+                    stats.unmatched_ns += System.nanoTime() - assignment_start_time;
+                }
+            }
+            
+            if(metrics != null)
+            {
+                metrics.record(group_nb, nb_of_group_pilots, nb_of_cars, nb_of_edges, matching_size, stats, System.nanoTime() - start_time);
+            }
+            
+            return result;
+        }
+        
+        // Solve the maximum matching of one group and drop it (see warm_up_solver()). Unlike solve(), it only reads the
+        // graph (pilots, cars), the groups and the car index, and not the race history nor the sizes of the championship.
+        public void warm_up(int group_nb)
+        {
+            int nb_of_cars = getActualNbOfCars();
             
-            update_pilot_preferred_cars_reverse(rd.pilot_to_car_mapping.matching);
+            random.setSeed(0);
+            matcher.setStats(null);
             
-            race_history.remove(rd);
+            int nb_of_group_pilots = getGroupSize(group_nb);
+            build_group_graph(group_nb);
+            group_matched_u = reserve(group_matched_u, nb_of_group_pilots);
+            group_matched_v = reserve(group_matched_v, nb_of_cars);
+            matcher.findMaximumMatching(nb_of_group_pilots, nb_of_cars, group_offsets, group_adjacency, group_matched_u, group_matched_v, false, true);
+        }
+        
+        // Plan the races of a whole season for one group, from the current bipartite graph (pilots, cars) of the group.
+        // The races are the color classes of an edge coloring of that graph (see BipartiteEdgeColoring): there are as many
+        // races as the maximum degree of the graph, at most the number of cars, and no pilot drives a preferred car twice.
+        // Each pilot drives each of their preferred cars exactly once in the season, and is given one of the cars left free
+        // in the other races (a repeat). The races are shuffled, then sorted by increasing number of repeats: on the
+        // graph of a new championship, or of a championship where all the pilots of the group raced equally, there is none.
+        // The car index must be up to date (see update_car_index()). The group must not be larger than the number of cars.
+        public CarAssignment[] plan_season(int group_nb, long seed)
+        {
+            int nb_of_cars = getActualNbOfCars();
+            
+            random.setSeed(seed);
+            
+            int nb_of_group_pilots = getGroupSize(group_nb);
+            build_group_graph(group_nb);
+            season_classes = reserve(season_classes, nb_of_group_pilots * nb_of_cars);
+            int nb_of_races = BipartiteEdgeColoring.solve(nb_of_group_pilots, nb_of_cars, group_offsets, group_adjacency, season_classes, coloring_workspace);
+            
+            // Counting sort of the races by number of repeats. The color classes are already in a random order.
+            season_order = reserve(season_order, nb_of_races);
+            repeat_count = reserve(repeat_count, nb_of_group_pilots + 3);
+            Arrays.fill(repeat_count, 0, nb_of_group_pilots + 3, 0);
+            for(int race = 0; race < nb_of_races; race++)
+            {
+                repeat_count[count_repeats(race, nb_of_group_pilots) + 2]++;
+            }
+            for(int count = 0; count <= nb_of_group_pilots; count++)
+            {
+                repeat_count[count + 1] += repeat_count[count];
+            }
+            for(int race = 0; race < nb_of_races; race++)
+            {
+                season_order[repeat_count[count_repeats(race, nb_of_group_pilots) + 1]++] = race;
+            }
+            
+            CarAssignment[] season = new CarAssignment[nb_of_races];
+            for(int idx = 0; idx < nb_of_races; idx++)
+            {
+                int           class_begin = season_order[idx] * nb_of_group_pilots;
+                CarAssignment race        = new_group_assignment(nb_of_group_pilots);
+                for(int u = 0; u < nb_of_group_pilots; u++)
+                {
+                    int v = season_classes[class_begin + u];
+                    race.setCarOfPilot(group_pilots[u], car_numbers_array[(v >= 0) ? v : -1 - v], (v < 0));
+                }
+                race.setSeed(CarAssignment.NO_SEED);
+                season[idx] = race;
+            }
+            return season;
+        }
+        
+        // Number of filler edges of a color class, i.e. of repeats in that race
+        private int count_repeats(int race, int nb_of_group_pilots)
+        {
+            int count       = 0;
+            int class_begin = race * nb_of_group_pilots;
+            for(int u = 0; u < nb_of_group_pilots; u++)
+            {
+                if(season_classes[class_begin + u] < 0)
+                {
+                    count++;
+                }
+            }
+            return count;
+        }
+        
+        // An empty assignment for the pilots of the group, which are listed in increasing order
+        private CarAssignment new_group_assignment(int nb_of_group_pilots)
+        {
+            return (nb_of_group_pilots == 0) ? new CarAssignment(0, 0)
+                                             : new CarAssignment(group_pilots[0], group_pilots[nb_of_group_pilots - 1] - group_pilots[0] + 1);
+        }
+        
+        // Build the subgraph of the group (pilots, selected preferred cars) directly in the CSR format, with the pilots
+        // of the group in group_pilots. Returns the number of edges.
+        private int build_group_graph(int group_nb)
+        {
+            // The pilots of the group (a view on the group index, not a copy)
+            group_pilots = getGroupMembers(group_nb);
+            int nb_of_group_pilots = getGroupSize(group_nb);
+            int nb_of_edges        = 0;
+            for(int u = 0; u < nb_of_group_pilots; u++)
+            {
+                nb_of_edges += preferred_cars.getDegree(group_pilots[u]);
+            }
+            
+            group_offsets   = reserve(group_offsets, nb_of_group_pilots + 1);
+            group_adjacency = reserve(group_adjacency, nb_of_edges);
+            long[] bits      = preferred_cars.getBits();                // View on the matrix, not a copy
+            int    row_words = preferred_cars.getRowWords();
+            int    edge_idx  = 0;
+            for(int u = 0; u < nb_of_group_pilots; u++)
+            {
+                // The rows of the matrix are read by increasing car number, and so are the car indexes: the random matching
+                // does not depend on the order in which the cars were removed from or put back in the preferred cars.
+                int row_offset   = preferred_cars.getRowOffset(group_pilots[u]);
+                group_offsets[u] = edge_idx;
+                for(int word_idx = 0; word_idx < row_words; word_idx++)
+                {
+                    long word = bits[row_offset + word_idx];
+                    while(word != 0)
+                    {
+                        int car_number = (word_idx << 6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                        if(car_index[car_number] != -1)
+                        {
+                            group_adjacency[edge_idx++] = car_index[car_number];
+                        }
+                    }
+                }
+            }
+            group_offsets[nb_of_group_pilots] = edge_idx;
+            
+            return edge_idx;
+        }
+        
+        // The pilots left unmatched by the maximum matching have already driven all the free cars (or cannot reach them
+        // without taking a car from another pilot who has not). Instead of a random assignment, choose the one which
+        // minimizes the repeats: the cost of giving a car to a pilot is the position in the race history of the last race
+        // in which that pilot drove that car (0 if never), so that old repeats are preferred to recent ones.
+        private void assign_unmatched_pilots(int nb_of_group_pilots, int nb_of_cars, CarAssignment result)
+        {
+            unmatched_pilots = reserve(unmatched_pilots, nb_of_group_pilots);
+            free_cars        = reserve(free_cars, nb_of_cars);
+            int nb_rows = 0;
+            int nb_cols = 0;
+            for(int u = 0; u < nb_of_group_pilots; u++)
+            {
+                if(group_matched_u[u] == -1)
+                {
+                    unmatched_pilots[nb_rows++] = u;
+                }
+            }
+            for(int v = 0; v < nb_of_cars; v++)
+            {
+                if(group_matched_v[v] == -1)
+                {
+                    free_cars[nb_cols++] = v;
+                }
+            }
+            
+            // Shuffle the rows and the columns, so that the ties are broken randomly
+            HopcroftKarp.shuffle(unmatched_pilots, 0, nb_rows, random);
+            HopcroftKarp.shuffle(free_cars, 0, nb_cols, random);
+            
+            if(nb_rows > nb_cols)
+            {
+                // Not enough cars for the group: random assignment, until the free cars are exhausted
+                for(int col = 0; col < nb_cols; col++)
+                {
+                    result.setCarOfPilot(group_pilots[unmatched_pilots[col]], car_numbers_array[free_cars[col]], true);
+                }
+                return;
+            }
+            
+            // Build the cost matrix from the race history
+            pilot_row       = reserve(pilot_row, nb_of_pilots);
+            car_col         = reserve(car_col, max_nb_of_cars + 1);
+            assignment_cost = reserve(assignment_cost, nb_rows * nb_cols);
+            assignment      = reserve(assignment, nb_rows);
+            Arrays.fill(pilot_row, 0, nb_of_pilots, -1);
+            Arrays.fill(car_col, 0, max_nb_of_cars + 1, -1);
+            Arrays.fill(assignment_cost, 0, nb_rows * nb_cols, 0);
+            for(int row = 0; row < nb_rows; row++)
+            {
+                pilot_row[group_pilots[unmatched_pilots[row]]] = row;
+            }
+            for(int col = 0; col < nb_cols; col++)
+            {
+                car_col[car_numbers_array[free_cars[col]]] = col;
+            }
+            for(int row = 0; row < nb_rows; row++)
+            {
+                update_assignment_cost(group_pilots[unmatched_pilots[row]], nb_cols);
+            }
+            
+            MinCostAssignment.solve(nb_rows, nb_cols, assignment_cost, assignment, assignment_workspace);
+            
+            for(int row = 0; row < nb_rows; row++)
+            {
+                result.setCarOfPilot(group_pilots[unmatched_pilots[row]], car_numbers_array[free_cars[assignment[row]]], true);
+            }
+        }
+        
+        // Set the cost of the pairs (pilot, car) of the races of a pilot, which is the recency of the last race in which
+        // the pilot drove the car. Only the races of that pilot are read (see RaceHistoryIndex).
+        private void update_assignment_cost(int pilot_index, int nb_cols)
+        {
+            int[] pilot_races    = race_history.getPilotRaces(pilot_index);
+            int   nb_pilot_races = race_history.getNbOfPilotRaces(pilot_index);
+            int   row_offset     = pilot_row[pilot_index] * nb_cols;
+            for(int idx = 0; idx < nb_pilot_races; idx++)
+            {
+                int race_idx   = pilot_races[idx];
+                int car_number = race_history.get(race_idx).pilot_to_car_mapping.getCarOfPilot(pilot_index);
+                if(car_number <= max_nb_of_cars && car_col[car_number] != -1)
+                {
+                    assignment_cost[row_offset + car_col[car_number]] = race_idx + 1;
+                }
+            }
         }
     }
     
-    // Build a subgraph of a bipartite graph (U,V,E), yet not doing a hard-copy of the inner lists.
-    public HashMap<Integer, ArrayList<Integer>> get_subgraph(HashMap<Integer, ArrayList<Integer>> graph, ArrayList<Integer> subset_u)
+    // Snapshot of the car index of car_pool, read by the solvers (which may run concurrently, while CarPool is not thread-safe)
+    // The background thread may be solving a race with the current snapshot (see warm_up_solver()).
+    private void update_car_index()
     {
-        HashMap<Integer, ArrayList<Integer>> subgraph = new HashMap<Integer, ArrayList<Integer>>();
-       
-        for(Integer u :  subset_u)
+        await_live_matching();
+        
+        int nb_of_cars = getActualNbOfCars();
+        
+        car_index         = reserve(car_index, max_nb_of_cars + 1);
+        car_numbers_array = reserve(car_numbers_array, nb_of_cars);
+        System.arraycopy(car_pool.getNumbers(), 0, car_numbers_array, 0, nb_of_cars);
+        Arrays.fill(car_index, 0, max_nb_of_cars + 1, -1);
+        for(int idx = 0; idx < nb_of_cars; idx++)
+        {
+            car_index[car_numbers_array[idx]] = idx;
+        }
+    }
+    
+    // Seed of a new solve: CarAssignment.NO_SEED is reserved for the races which cannot be replayed
+    private long next_seed()
+    {
+        long seed;
+        do
+        {
+            seed = seed_generator.nextLong();
+        }
+        while(seed == CarAssignment.NO_SEED);
+        return seed;
+    }
+    
+    public CarAssignment generate_random_pilot_to_car_mapping(int group_nb)
+    {
+        return generate_random_pilot_to_car_mapping(group_nb, next_seed());
+    }
+    
+    // Same as above, from a given seed. Given the seed of a race (RaceDetails.seed) and the bipartite graph (pilots, cars)
+    // as it was before that race, the matching of the race is generated again exactly. The races of a season plan cannot
+    // be replayed that way (see CarAssignment.isReplayable()).
+    public CarAssignment generate_random_pilot_to_car_mapping(int group_nb, long seed)
+    {
+        update_car_index();
+        
+        return main_solver.solve(group_nb, seed);
+    }
+    
+    // Generate a random matching for all the groups at once. The groups are independent from each other, so when there
+    // are enough pilots they are solved concurrently, each group with its own solver and its own random stream. The random
+    // streams are seeded in group order, so the results do not depend on the scheduling of the threads.
+    // Returns an array indexed by group number (entry 0 is unused), or null if the thread was interrupted.
+    public CarAssignment[] generate_random_pilot_to_car_mapping_all_groups()
+    {
+        int             nb_groups = getNbOfGroups();
+        CarAssignment[] results   = new CarAssignment[nb_groups + 1];
+        
+        update_car_index();
+        
+        if(nb_groups < 2 || nb_of_pilots < PARALLEL_MIN_NB_OF_PILOTS)
+        {
+            for(int group_nb = 1; group_nb <= nb_groups; group_nb++)
+            {
+                results[group_nb] = main_solver.solve(group_nb, next_seed());
+            }
+            return results;
+        }
+        
+        if(group_solvers.length < nb_groups)
         {
-            if(graph.containsKey(u))
+            GroupSolver[] solvers = new GroupSolver[nb_groups];
+            System.arraycopy(group_solvers, 0, solvers, 0, group_solvers.length);
+            for(int idx = group_solvers.length; idx < nb_groups; idx++)
             {
-                subgraph.put(u, graph.get(u));
+                solvers[idx] = new GroupSolver();
             }
+            group_solvers = solvers;
+        }
+        if(solver_executor == null)
+        {
+            // Daemon threads, so that the pool never keeps the process alive
+            solver_executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable runnable)
+                        {
+                            Thread thread = new Thread(runnable, "GroupSolver");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        
+        ArrayList<Callable<CarAssignment>> tasks = new ArrayList<Callable<CarAssignment>>();
+        for(int group_nb = 1; group_nb <= nb_groups; group_nb++)
+        {
+            final GroupSolver solver       = group_solvers[group_nb - 1];
+            final int         task_group   = group_nb;
+            final long        task_seed    = next_seed();
+            tasks.add(new Callable<CarAssignment>()
+                      {
+                          public CarAssignment call()
+                          {
+                              return solver.solve(task_group, task_seed);
+                          }
+                      });
+        }
+        
+        try
+        {
+            List<Future<CarAssignment>> futures = solver_executor.invokeAll(tasks);
+            for(int group_nb = 1; group_nb <= nb_groups; group_nb++)
+            {
+                results[group_nb] = futures.get(group_nb - 1).get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
         }
         
-        return subgraph;
+        return results;
     }
     
-    public HopcroftKarp.Result generate_random_pilot_to_car_mapping(int group_nb)
+    // A Grand Prix is generated on the UI thread (see RaceHistoryActivity): its number of races is bounded, from the cost of a
+    // race of all the groups, so that it takes less than GRAND_PRIX_TIME_BUDGET_MS. There are at most as many races as cars,
+    // since the next ones only have repeats. At least one race.
+    public int getMaxNbOfGrandPrixRaces()
     {
-        ArrayList<Integer> pilot_subset = new ArrayList<Integer>();
+        long race_ns         = Math.max(1, (long)nb_of_pilots * getActualNbOfCars() * NS_PER_EDGE);
+        long max_nb_of_races = Math.min(getActualNbOfCars(), GRAND_PRIX_TIME_BUDGET_MS * 1000000L / race_ns);
+        return (int)Math.max(1, max_nb_of_races);
+    }
+    
+    // Generate the schedule of a whole Grand Prix in a single pass: nb_of_races new races for each group. Each race is
+    // saved in the race history and the bipartite graph (pilots, cars) is updated accordingly, exactly as if the races
+    // had been generated one after the other from NewRaceFinalActivity.
+    // Returns the details of the new races, race after race and group after group. The list is empty if one group is too big.
+    public ArrayList<RaceDetails> generate_grand_prix_schedule(int nb_of_races)
+    {
+        ArrayList<RaceDetails> schedule = new ArrayList<RaceDetails>();
+        
+        if(!allGroupSizesOK())
+        {
+            return schedule;
+        }
         
-        for(int index = 0; index < nb_of_pilots; index++)
+        for(int race = 0; race < nb_of_races; race++)
         {
-            if(pilot_group.get(index) == group_nb)
+            // The groups of a same race are solved all at once
+            CarAssignment[] matchings = generate_random_pilot_to_car_mapping_all_groups();
+            if(matchings == null)
+            {
+                break;              // Interrupted
+            }
+            
+            for(int group_nb = 1; group_nb <= getNbOfGroups(); group_nb++)
             {
-                pilot_subset.add(index);
+                if(getGroupSize(group_nb) == 0)
+                {
+                    continue;       // Nobody in that group
+                }
+                
+                add_to_race_history(group_nb, getNextRaceNb(group_nb), matchings[group_nb]);
+                update_pilot_preferred_cars(matchings[group_nb]);
+                schedule.add(race_history.get(race_history.size() - 1));
             }
         }
         
-        HashMap<Integer, ArrayList<Integer>> subgraph = get_subgraph(pilot_preferred_cars, pilot_subset);
+        // The whole schedule is forced to the storage at once
+        sync_race_journal();
         
-        return HopcroftKarp.findMaximumMatching(subgraph, car_numbers, true);
+        return schedule;
+    }
+    
+    public CarAssignment[] generate_season_schedule(int group_nb)
+    {
+        return generate_season_schedule(group_nb, next_seed());
     }
     
-    public void update_pilot_preferred_cars(SparseIntArray used_cars)
+    // Plan the races of a whole season for one group in a single pass, instead of one maximum matching per race: see
+    // GroupSolver.plan_season(). The races are not saved in the race history. To run them in turn, save each of them with
+    // save_in_race_history() and update_pilot_preferred_cars(), as a race generated by generate_random_pilot_to_car_mapping().
+    // The season stays valid as long as the groups and the selected cars do not change.
+    // Returns at most getActualNbOfCars() races, in the order in which they should be run. The season only depends on the
+    // seed and on the bipartite graph (pilots, cars), but each race depends on the whole season: the races cannot be
+    // replayed one by one, and their seed is CarAssignment.NO_SEED. The array is empty if the group is too big.
+    public CarAssignment[] generate_season_schedule(int group_nb, long seed)
     {
-        for(int idx = 0; idx < used_cars.size(); idx++)
+        if(!isGroupSizeOK(group_nb))
         {
-            int pilot_index = used_cars.keyAt(idx);
-            int car_number  = used_cars.valueAt(idx);
-            
-            ArrayList<Integer> car_list = pilot_preferred_cars.get(pilot_index);
-            car_list.remove(car_list.indexOf(car_number));
+            return new CarAssignment[0];
+        }
+        
+        update_car_index();
+        
+        return main_solver.plan_season(group_nb, seed);
+    }
+    
+    public void update_pilot_preferred_cars(CarAssignment used_cars)
+    {
+        await_live_matching();
+        
+        // Only the cars of the maximum matching were preferred cars: the repeats are ignored
+        preferred_cars.applyRace(used_cars);
+        if(live_matching != null)
+        {
+            for(int pilot_index = used_cars.getFirstPilot(); pilot_index < used_cars.getEndPilot(); pilot_index++)
+            {
+                if(used_cars.hasPilot(pilot_index) && !used_cars.isRepeat(pilot_index))
+                {
+                    live_matching.edgeRemoved(pilot_index, used_cars.getCarOfPilot(pilot_index));
+                }
+            }
         }
     }
     
     // Reversed operation compared to update_pilot_preferred_cars(), used when removing a race from the history
-    public void update_pilot_preferred_cars_reverse(SparseIntArray used_cars)
+    public void update_pilot_preferred_cars_reverse(CarAssignment used_cars)
     {
-        for(int idx = 0; idx < used_cars.size(); idx++)
+        await_live_matching();
+        preferred_cars.revertRace(used_cars);
+        if(live_matching != null)
         {
-            int pilot_index = used_cars.keyAt(idx);
-            int car_number  = used_cars.valueAt(idx);
-            
-            ArrayList<Integer> car_list = pilot_preferred_cars.get(pilot_index);
-            
-            // If the car is not already in the list, put it
-            if(!car_list.contains(car_number))
+            for(int pilot_index = used_cars.getFirstPilot(); pilot_index < used_cars.getEndPilot(); pilot_index++)
             {
-                car_list.add(car_number);
+                if(used_cars.hasPilot(pilot_index) && !used_cars.isRepeat(pilot_index))
+                {
+                    live_matching.edgeInserted(pilot_index, used_cars.getCarOfPilot(pilot_index));
+                }
             }
         }
     }
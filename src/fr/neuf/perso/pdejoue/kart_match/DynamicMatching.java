@@ -0,0 +1,377 @@
+/**
+ * KartMatch: DynamicMatching.java
+ *
+ *   Maximum matching of a bipartite graph (U, V, E) which is edited: the vertices of U are moved from one part of the
+ *   graph to another (the pilots change group), the vertices of V are withdrawn or put back (the cars are unselected
+ *   or selected), and the edges are removed or inserted (the preferred cars of the pilots change after each race).
+ *   Each part of U is matched independently with the whole set V.
+ *
+ *   Each change only updates the current matching, which remains valid but may not be maximum anymore, and marks the
+ *   part as dirty. The matching of a dirty part is repaired when it is queried, by searching for the few augmenting
+ *   paths that the changes may have created:
+ *      - A single change can increase or decrease the size of the maximum matching by one at most. If the change freed
+ *        a vertex, an augmenting path must start or end at that vertex. Therefore at most two searches are needed to
+ *        restore a maximum matching, and each search is a DFS of cost O(E) in the worst case, and usually much less.
+ *      - After many changes (for instance, when the cars of a race are removed from the preferred cars of the pilots),
+ *        the part is solved again with MatcherSelector, warm-started with the current matching.
+ *
+ *   The graph is not copied: the matrix belongs to the caller, who notifies every change to it.
+ *      - The vertices of U are numbered 0..nb_u-1, and the vertices of V are numbered 0..nb_v-1.
+ *      - The neighbours of vertex u are the cars of row u of the matrix (see PreferredCarsMatrix), in increasing order.
+ *      - The parts are numbered 1..nb_parts. Part 0 holds the vertices of U that are not in the graph.
+ *
+ *   Initially, all the vertices of U are in part 0 and all the vertices of V are withdrawn.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.Arrays;
+
+public class DynamicMatching
+{
+    // Above that number of free vertices on both sides, a dirty part is solved again instead of searching for
+    // augmenting paths one at a time.
+    private static final int REPAIR_MAX_NB_OF_SEARCHES = 16;
+
+    private int       nb_u;
+    private int       nb_v;
+    private int       nb_parts;
+    private PreferredCarsMatrix graph;          // Owned by the caller
+
+    private int[]     part_u;                   // Part of each vertex of U (0 if not in the graph)
+    private boolean[] active_v;                 // Vertices of V in the graph
+    private long[]    active_bits;              // Same, as a bitset with the layout of the rows of the graph
+    private int       nb_active_v   = 0;
+    private int[]     mate_u;                   // Vertex of V matched with each vertex of U, or -1
+    private int[][]   mate_v;                   // Vertex of U matched with each vertex of V, for each part, or -1
+    private int[]     part_size;
+    private int[]     matching_size;
+    private boolean[] dirty;                    // The matching of the part may not be maximum
+
+    // Working memory of the DFS
+    private long[]    unvisited_v;              // Active vertices of V not visited yet, as a bitset
+    private int[]     stack_u;
+    private int[]     stack_v;                  // Vertex of V through which the vertex of U at the same level was reached
+    private int[]     cursor_u;                 // Next neighbour to try: a vertex v >= cursor_u[level]
+
+    // Working memory of the full solve of a part, in the CSR format
+    private MatcherSelector matcher         = null;
+    private int[]           part_pilots     = new int[0];
+    private int[]           part_offsets    = new int[1];
+    private int[]           part_adjacency  = new int[0];
+    private int[]           part_matched_u  = new int[0];
+    private int[]           part_matched_v  = new int[0];
+
+    public DynamicMatching(int nb_u, int nb_v, int nb_parts, PreferredCarsMatrix graph)
+    {
+        this.nb_u      = nb_u;
+        this.nb_v      = nb_v;
+        this.nb_parts  = nb_parts;
+        this.graph     = graph;
+
+        part_u        = new int[nb_u];
+        active_v      = new boolean[nb_v];
+        active_bits   = new long[graph.getRowWords()];
+        mate_u        = new int[nb_u];
+        mate_v        = new int[nb_parts + 1][nb_v];
+        part_size     = new int[nb_parts + 1];
+        matching_size = new int[nb_parts + 1];
+        dirty         = new boolean[nb_parts + 1];
+
+        unvisited_v   = new long[graph.getRowWords()];
+        stack_u       = new int[nb_u];
+        stack_v       = new int[nb_u];
+        cursor_u      = new int[nb_u];
+
+        Arrays.fill(mate_u, -1);
+        for(int part = 0; part <= nb_parts; part++)
+        {
+            Arrays.fill(mate_v[part], -1);
+        }
+        part_size[0] = nb_u;
+    }
+
+    //
+    // Changes
+    //
+
+    // Move vertex u to another part (0 to remove it from the graph)
+    public void setPart(int u, int part)
+    {
+        int old_part = part_u[u];
+        if(part == old_part || part < 0 || part > nb_parts)
+        {
+            return;
+        }
+
+        unmatch(u);
+        part_size[old_part]--;
+        part_size[part]++;
+        part_u[u] = part;
+
+        dirty[old_part] = true;
+        dirty[part]     = true;
+    }
+
+    // Withdraw or put back vertex v. No effect if v is out of range.
+    public void setActive(int v, boolean active)
+    {
+        if(v < 0 || v >= nb_v || active_v[v] == active)
+        {
+            return;
+        }
+
+        active_v[v]          = active;
+        active_bits[v >> 6] ^= (1L << v);
+        if(active)
+        {
+            nb_active_v++;
+        }
+        else
+        {
+            nb_active_v--;
+            for(int part = 1; part <= nb_parts; part++)
+            {
+                if(mate_v[part][v] != -1)
+                {
+                    unmatch(mate_v[part][v]);
+                }
+            }
+        }
+
+        Arrays.fill(dirty, true);
+    }
+
+    // Edge (u, v) has been removed from the graph
+    public void edgeRemoved(int u, int v)
+    {
+        if(mate_u[u] == v)
+        {
+            unmatch(u);
+            dirty[part_u[u]] = true;
+        }
+    }
+
+    // Edge (u, v) has been inserted in the graph
+    public void edgeInserted(int u, int v)
+    {
+        if(active_v[v])
+        {
+            dirty[part_u[u]] = true;
+        }
+    }
+
+    //
+    // Queries
+    //
+
+    public int getPartSize(int part)
+    {
+        return part_size[part];
+    }
+
+    // Size of the maximum matching of the part
+    public int getMatchingSize(int part)
+    {
+        repair(part);
+        return matching_size[part];
+    }
+
+    // True if all the vertices of U in the part are matched
+    public boolean isPerfect(int part)
+    {
+        return (getMatchingSize(part) == part_size[part]);
+    }
+
+    // Vertex of V matched with u in the maximum matching of its part, or -1
+    public int getMate(int u)
+    {
+        repair(part_u[u]);
+        return mate_u[u];
+    }
+
+    //
+    // Class specific methods
+    //
+
+    private void unmatch(int u)
+    {
+        int v = mate_u[u];
+        if(v != -1)
+        {
+            mate_u[u]              = -1;
+            mate_v[part_u[u]][v]   = -1;
+            matching_size[part_u[u]]--;
+        }
+    }
+
+    private void repair(int part)
+    {
+        if(part == 0 || !dirty[part])
+        {
+            return;
+        }
+        dirty[part] = false;
+
+        // An augmenting path goes from a free vertex of U to a free vertex of V
+        int deficit = Math.min(part_size[part], nb_active_v) - matching_size[part];
+        if(deficit > REPAIR_MAX_NB_OF_SEARCHES)
+        {
+            solve(part);
+        }
+        else
+        {
+            // Each search either augments the matching or proves that it is maximum
+            while(deficit > 0 && augment(part))
+            {
+                deficit--;
+            }
+        }
+    }
+
+    // Search for one augmenting path from the free vertices of U in the part, and augment the matching along it.
+    // The visited vertices are shared by the searches from all the roots of one call: a vertex of V from which no free
+    // vertex of V could be reached from a root cannot lead to one from the next root either, since the matching has
+    // not changed in between. They are reset at each call, since the matching changes along the augmenting path. The
+    // neighbours of a vertex of U are read a word at a time, masked with the active vertices of V not visited yet.
+    private boolean augment(int part)
+    {
+        System.arraycopy(active_bits, 0, unvisited_v, 0, active_bits.length);
+
+        long[] bits        = graph.getBits();
+        int    row_words   = graph.getRowWords();
+        int[]  mate_v_part = mate_v[part];
+        for(int root = 0; root < nb_u; root++)
+        {
+            if(part_u[root] != part || mate_u[root] != -1)
+            {
+                continue;
+            }
+
+            // Iterative DFS along the alternating paths
+            int level = 0;
+            stack_u[0]  = root;
+            cursor_u[0] = 0;
+            while(level >= 0)
+            {
+                // Next unvisited neighbour of u
+                int  u          = stack_u[level];
+                int  row_offset = graph.getRowOffset(u);
+                int  word_idx   = cursor_u[level] >> 6;
+                long word       = (word_idx < row_words) ? bits[row_offset + word_idx] & unvisited_v[word_idx] & (-1L << cursor_u[level]) : 0;
+                while(word == 0 && ++word_idx < row_words)
+                {
+                    word = bits[row_offset + word_idx] & unvisited_v[word_idx];
+                }
+                if(word == 0)
+                {
+                    level--;
+                    continue;
+                }
+
+                int v = (word_idx << 6) + Long.numberOfTrailingZeros(word);
+                cursor_u[level]      = v + 1;
+                unvisited_v[v >> 6] &= ~(1L << v);
+                stack_v[level]       = v;
+
+                if(mate_v_part[v] == -1)
+                {
+                    // Augment the matching along the path
+                    for(int idx = level; idx >= 0; idx--)
+                    {
+                        mate_u[stack_u[idx]]        = stack_v[idx];
+                        mate_v_part[stack_v[idx]]   = stack_u[idx];
+                    }
+                    matching_size[part]++;
+                    return true;
+                }
+
+                level++;
+                stack_u[level]  = mate_v_part[v];
+                cursor_u[level] = 0;
+            }
+        }
+
+        return false;
+    }
+
+    // Solve the part again, warm-started with the current matching
+    private void solve(int part)
+    {
+        if(matcher == null)
+        {
+            matcher = new MatcherSelector();
+        }
+
+        // Build the CSR of the part
+        int nb_of_part_pilots = 0;
+        int nb_of_edges       = 0;
+        if(part_pilots.length < part_size[part])
+        {
+            part_pilots    = new int[part_size[part]];
+            part_offsets   = new int[part_size[part] + 1];
+            part_matched_u = new int[part_size[part]];
+        }
+        for(int u = 0; u < nb_u; u++)
+        {
+            if(part_u[u] == part)
+            {
+                part_pilots[nb_of_part_pilots++] = u;
+                nb_of_edges += graph.getDegree(u);
+            }
+        }
+        if(part_adjacency.length < nb_of_edges)
+        {
+            part_adjacency = new int[nb_of_edges];
+        }
+        if(part_matched_v.length < nb_v)
+        {
+            part_matched_v = new int[nb_v];
+        }
+
+        long[] bits      = graph.getBits();
+        int    row_words = graph.getRowWords();
+        int    edge_idx  = 0;
+        for(int idx = 0; idx < nb_of_part_pilots; idx++)
+        {
+            int u          = part_pilots[idx];
+            int row_offset = graph.getRowOffset(u);
+            part_offsets[idx] = edge_idx;
+            for(int word_idx = 0; word_idx < row_words; word_idx++)
+            {
+                long word = bits[row_offset + word_idx];
+                while(word != 0)
+                {
+                    int v = (word_idx << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    if(v < nb_v && active_v[v])
+                    {
+                        part_adjacency[edge_idx++] = v;
+                    }
+                }
+            }
+            part_matched_u[idx] = mate_u[u];
+        }
+        part_offsets[nb_of_part_pilots] = edge_idx;
+
+        matching_size[part] = matcher.findMaximumMatching(nb_of_part_pilots, nb_v, part_offsets, part_adjacency, part_matched_u, part_matched_v, true, false);
+
+        // Copy back the matching
+        int[] mate_v_part = mate_v[part];
+        Arrays.fill(mate_v_part, -1);
+        for(int idx = 0; idx < nb_of_part_pilots; idx++)
+        {
+            int u = part_pilots[idx];
+            mate_u[u] = part_matched_u[idx];
+            if(mate_u[u] != -1)
+            {
+                mate_v_part[mate_u[u]] = u;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * KartMatch: GroupIndex.java
+ *
+ *   Index of the pilots by group, kept up to date as the pilots move from one group to another.
+ *
+ *   Each group has its array of members, the pilot indexes in increasing order, so that the pilots of a group are
+ *   listed without scanning all the pilots, and in the same order as the scan would list them (the generation of a
+ *   race depends on that order). Moving a pilot is a binary search and a shift in the arrays of its old and new groups,
+ *   i.e. O(log n + group size), with n the number of pilots.
+ *
+ *   The size of each group, and the size of the largest group, are O(1): the index keeps the number of groups of each
+ *   size, and the largest size only decreases by one at most when a pilot moves.
+ *
+ *   The groups are numbered 1..nb_of_groups (entry 0 of the arrays is unused).
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.ArrayList;
+
+public class GroupIndex
+{
+    private int       nb_of_groups;
+    private int[]     pilot_group;                  // Group of each pilot
+    private int[][]   members;                      // Pilots of each group in increasing order (first group_size[group] entries)
+    private int[]     group_size;
+    private int[]     nb_of_groups_of_size;         // Number of groups of each size 0..nb_of_pilots
+    private int       max_group_size;
+
+    // Index of the groups 1..nb_of_groups, given the group of each pilot
+    public GroupIndex(int nb_of_groups, ArrayList<Integer> pilot_group)
+    {
+        int nb_of_pilots = pilot_group.size();
+
+        this.nb_of_groups    = nb_of_groups;
+        this.pilot_group     = new int[nb_of_pilots];
+        members              = new int[nb_of_groups + 1][];
+        group_size           = new int[nb_of_groups + 1];
+        nb_of_groups_of_size = new int[nb_of_pilots + 1];
+
+        for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
+        {
+            this.pilot_group[pilot_index] = pilot_group.get(pilot_index);
+            group_size[this.pilot_group[pilot_index]]++;
+        }
+        for(int group_nb = 1; group_nb <= nb_of_groups; group_nb++)
+        {
+            members[group_nb] = new int[Math.max(group_size[group_nb], 1)];
+            nb_of_groups_of_size[group_size[group_nb]]++;
+            max_group_size = Math.max(max_group_size, group_size[group_nb]);
+            group_size[group_nb] = 0;
+        }
+        for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
+        {
+            int group_nb = this.pilot_group[pilot_index];
+            members[group_nb][group_size[group_nb]++] = pilot_index;
+        }
+    }
+
+    public int getNbOfGroups()
+    {
+        return nb_of_groups;
+    }
+
+    public int getGroup(int pilot_index)
+    {
+        return pilot_group[pilot_index];
+    }
+
+    public int getSize(int group_nb)
+    {
+        return group_size[group_nb];
+    }
+
+    public int getMaxSize()
+    {
+        return max_group_size;
+    }
+
+    // The pilots of the group, in increasing order. The array must not be modified, and only its first getSize(group_nb)
+    // entries are valid. It is not a copy: it changes when a pilot moves.
+    public int[] getMembers(int group_nb)
+    {
+        return members[group_nb];
+    }
+
+    // Move a pilot to another group
+    public void move(int pilot_index, int group_nb)
+    {
+        int old_group_nb = pilot_group[pilot_index];
+        if(group_nb == old_group_nb)
+        {
+            return;
+        }
+
+        // Remove the pilot from its old group
+        int[] old_members = members[old_group_nb];
+        int   position    = search(old_members, group_size[old_group_nb], pilot_index);
+        System.arraycopy(old_members, position + 1, old_members, position, group_size[old_group_nb] - position - 1);
+        resize(old_group_nb, -1);
+
+        // Insert the pilot in its new group
+        if(group_size[group_nb] == members[group_nb].length)
+        {
+            int[] new_members = new int[2 * members[group_nb].length];
+            System.arraycopy(members[group_nb], 0, new_members, 0, group_size[group_nb]);
+            members[group_nb] = new_members;
+        }
+        int[] new_members = members[group_nb];
+        position = -search(new_members, group_size[group_nb], pilot_index) - 1;
+        System.arraycopy(new_members, position, new_members, position + 1, group_size[group_nb] - position);
+        new_members[position] = pilot_index;
+        resize(group_nb, +1);
+
+        pilot_group[pilot_index] = group_nb;
+    }
+
+    //
+    // Class specific methods
+    //
+
+    private void resize(int group_nb, int delta)
+    {
+        nb_of_groups_of_size[group_size[group_nb]]--;
+        group_size[group_nb] += delta;
+        nb_of_groups_of_size[group_size[group_nb]]++;
+
+        if(group_size[group_nb] > max_group_size)
+        {
+            max_group_size = group_size[group_nb];
+        }
+        else if(nb_of_groups_of_size[max_group_size] == 0)
+        {
+            max_group_size--;
+        }
+    }
+
+    // Position of the pilot in the first length entries of the array, or (-(insertion point) - 1) if not found
+    private static int search(int[] array, int length, int pilot_index)
+    {
+        int low  = 0;
+        int high = length - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            if(array[middle] < pilot_index)
+            {
+                low = middle + 1;
+            }
+            else if(array[middle] > pilot_index)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+}
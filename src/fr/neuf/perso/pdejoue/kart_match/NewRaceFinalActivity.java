@@ -29,6 +29,8 @@ public class NewRaceFinalActivity extends Activity
     private CustomApplication main_application = null;   
     private int               group_nb         = 0;         // The group number for that Activity (group number starts at 1, so 0 is invalid)
     
+    private static final String SEED_KEY = "seed";          // Seed of the race shown, saved with the state of the Activity
+    
     //
     // Overridden methods
     //
@@ -39,6 +41,7 @@ public class NewRaceFinalActivity extends Activity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_new_race_final);
         main_application = (CustomApplication)getApplication();
+        main_application.awaitRestore();                  // The race history may still be restored in the background
         
         // Show the Up button in the action bar.
         setupActionBar();
@@ -47,6 +50,22 @@ public class NewRaceFinalActivity extends Activity
         Bundle extras = getIntent().getExtras();
         group_nb = extras.getInt("group_nb");
         
+        // The process may have been killed while the race was shown: the race is generated again from its seed, on the same
+        // graph (pilots, cars) since the race was not saved. Without a seed, go back to the race history.
+        if(main_application.random_matching == null)
+        {
+            long seed = (savedInstanceState != null) ? savedInstanceState.getLong(SEED_KEY, CarAssignment.NO_SEED) : CarAssignment.NO_SEED;
+            if(seed == CarAssignment.NO_SEED)
+            {
+                Intent intent = new Intent(this, RaceHistoryActivity.class);
+                intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+                startActivity(intent);
+                finish();
+                return;
+            }
+            main_application.random_matching = main_application.generate_random_pilot_to_car_mapping(group_nb, seed);
+        }
+        
         // Edit the introduction text
         TextView text = (TextView)findViewById(R.id.new_race_intro);
         text.setText(getResources().getString(R.string.group_capitalize) + " " + group_nb + ", " + getResources().getString(R.string.race) + " " + main_application.getNextRaceNb(group_nb));
@@ -55,6 +74,16 @@ public class NewRaceFinalActivity extends Activity
         build_scroll_view();
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState)
+    {
+        super.onSaveInstanceState(outState);
+        if(main_application.random_matching != null && main_application.random_matching.isReplayable())
+        {
+            outState.putLong(SEED_KEY, main_application.random_matching.getSeed());
+        }
+    }
+
     /**
      * Set up the {@link android.app.ActionBar}, if the API is available.
      */
@@ -115,15 +144,15 @@ public class NewRaceFinalActivity extends Activity
                 new_horiz_layout.addView(new_image_view);
                 
                 EditText new_text_view_car_id = new EditText(this);
-                if(main_application.random_matching.matching.indexOfKey(index) >= 0)
+                if(!main_application.random_matching.isRepeat(index))
                 {
-                    new_text_view_car_id.setText(Integer.toString(main_application.random_matching.matching.get(index)));
+                    new_text_view_car_id.setText(Integer.toString(main_application.random_matching.getCarOfPilot(index)));
                 }
                 else
                 {
                     // This pilot wasn't in the maximum matching, he therefore is assigned to a car number he already got
                     // Signal that by writing the car number red.
-                    new_text_view_car_id.setText(Integer.toString(main_application.random_matching.unmatched.get(index)));
+                    new_text_view_car_id.setText(Integer.toString(main_application.random_matching.getCarOfPilot(index)));
                     new_text_view_car_id.setTextColor(getResources().getColor(R.color.dark_red));
                 }
                 new_text_view_car_id.setLayoutParams(new LinearLayout.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
@@ -181,7 +210,7 @@ public class NewRaceFinalActivity extends Activity
         main_application.save_in_race_history(group_nb, main_application.getNextRaceNb(group_nb), main_application.random_matching);
         
         // Update the bipartite graph (pilots, cars)
-        main_application.update_pilot_preferred_cars(main_application.random_matching.matching);
+        main_application.update_pilot_preferred_cars(main_application.random_matching);
         
         // Go back to the History Activity, clearing the two "NewRace" activities
         Intent intent = new Intent(this, RaceHistoryActivity.class);
@@ -0,0 +1,412 @@
+/**
+ * KartMatch: PilotRegistry.java
+ *
+ *   The list of the custom pilot names, indexed by pilot index (the empty string means that the pilot has the default
+ *   name), with a hash index from each name to its index in the list, and its persistent storage.
+ *
+ *   The names are saved in a text file, one name per line. That file is not rewritten at each change: the changes
+ *   are appended to a journal file by a background thread (write-behind), so that the UI thread never waits for the
+ *   storage. The changes made while the background thread is busy are written together in a single append. Once
+ *   in a while (every COMPACTION_PERIOD changes), the whole list is written to a temporary file which atomically
+ *   replaces the text file, and the journal is replaced by an empty one (compaction).
+ *
+ *   When the registry is loaded, the journal is replayed on top of the text file. An incomplete last entry (without
+ *   its new line), if the process was killed in the middle of an append, is ignored.
+ *
+ *   The journal only applies to the text file it was started on: its first line, "G <checksum>", is the CRC-32 of
+ *   that text file. If the process is killed after a compaction has replaced the text file but before it has
+ *   replaced the journal, the checksum of the journal does not match the new text file, and the journal (already
+ *   included in the new text file) is not replayed. If both checksums match, the text file has the same content as
+ *   when the journal was started, so replaying the journal gives the right names anyway. A journal without that
+ *   first line (written by an older version) is replayed as is.
+ *
+ *   Journal entries, one per line:
+ *      - "S <index> <name>":   set the name of index <index> (the list is padded with empty strings if needed)
+ *      - "D <index>":          remove index <index> from the list (the next names are shifted down)
+ *
+ *   The registry itself is not thread-safe: it must only be used by one thread (the UI thread).
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+public class PilotRegistry
+{
+    private static final int    COMPACTION_PERIOD = 256;        // Number of journal entries between two compactions
+    private static final String CHARSET           = "UTF-8";
+
+    private File                     names_file;
+    private File                     journal_file;
+    private ArrayList<String>        names      = new ArrayList<String>();
+    private HashMap<String, Integer> name_index = new HashMap<String, Integer>();     // Custom name --> index in names
+
+    // Write-behind: the UI thread adds the journal entries to the pending list, the background thread writes them
+    private ExecutorService          writer              = null;
+    private StringBuilder            pending_entries     = new StringBuilder();         // Guarded by itself
+    private ArrayList<String>        pending_snapshot    = null;                        // Guarded by pending_entries
+    private boolean                  flush_scheduled     = false;                       // Guarded by pending_entries
+    private int                      nb_of_entries       = 0;                           // Entries since the last compaction
+    private volatile long            names_checksum      = 0;                           // CRC-32 of the text file
+
+    public PilotRegistry(File names_file, File journal_file)
+    {
+        this.names_file   = names_file;
+        this.journal_file = journal_file;
+    }
+
+    //
+    // List of names
+    //
+
+    public int size()
+    {
+        return names.size();
+    }
+
+    public String get(int index)
+    {
+        return names.get(index);
+    }
+
+    // Index of a custom name, or -1. O(1).
+    public int indexOf(String name)
+    {
+        Integer index = name_index.get(name);
+        return (index != null) ? index : -1;
+    }
+
+    // Set the name of an index. The list is padded with empty strings if needed.
+    public void set(int index, String name)
+    {
+        apply_set(index, name);
+        log("S " + index + " " + name);
+    }
+
+    // Remove an index from the list: the names of the next indexes are shifted down
+    public void remove(int index)
+    {
+        apply_remove(index);
+        log("D " + index);
+    }
+
+    private void apply_set(int index, String name)
+    {
+        while(names.size() <= index)
+        {
+            names.add("");
+        }
+        String previous = names.set(index, name);
+        if(!previous.equals(""))
+        {
+            name_index.remove(previous);
+        }
+        if(!name.equals(""))
+        {
+            name_index.put(name, index);
+        }
+    }
+
+    private void apply_remove(int index)
+    {
+        String previous = names.remove(index);
+        if(!previous.equals(""))
+        {
+            name_index.remove(previous);
+        }
+        for(int idx = index; idx < names.size(); idx++)
+        {
+            if(!names.get(idx).equals(""))
+            {
+                name_index.put(names.get(idx), idx);
+            }
+        }
+    }
+
+    //
+    // Storage
+    //
+
+    // Read the text file and replay the journal
+    public void load() throws IOException
+    {
+        names.clear();
+        name_index.clear();
+
+        CRC32 checksum = new CRC32();
+        if(names_file.exists())
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                                        new CheckedInputStream(new FileInputStream(names_file), checksum), CHARSET));
+            try
+            {
+                String name;
+                while((name = reader.readLine()) != null)
+                {
+                    apply_set(names.size(), name);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        names_checksum = checksum.getValue();
+
+        nb_of_entries = 0;
+        boolean stale_journal = false;
+        if(journal_file.exists())
+        {
+            StringBuilder  journal = new StringBuilder();
+            BufferedReader reader  = new BufferedReader(new InputStreamReader(new FileInputStream(journal_file), CHARSET));
+            try
+            {
+                char[] buffer = new char[4096];
+                int    length;
+                while((length = reader.read(buffer)) != -1)
+                {
+                    journal.append(buffer, 0, length);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+
+            // Only the complete entries, terminated by a new line, are replayed
+            int begin = 0;
+            int end   = journal.indexOf("\n");
+            if(end != -1 && journal.charAt(0) == 'G')
+            {
+                stale_journal = !journal.substring(0, end).equals(journal_header(names_checksum));
+                begin         = end + 1;
+            }
+            while(!stale_journal && (end = journal.indexOf("\n", begin)) != -1)
+            {
+                replay(journal.substring(begin, end));
+                nb_of_entries++;
+                begin = end + 1;
+            }
+        }
+        if(nb_of_entries > 0 || stale_journal)
+        {
+            compact();
+        }
+    }
+
+    private void replay(String entry)
+    {
+        try
+        {
+            if(entry.startsWith("S "))
+            {
+                int separator = entry.indexOf(' ', 2);
+                if(separator != -1 && Integer.parseInt(entry.substring(2, separator)) >= 0)
+                {
+                    apply_set(Integer.parseInt(entry.substring(2, separator)), entry.substring(separator + 1));
+                }
+            }
+            else if(entry.startsWith("D "))
+            {
+                int index = Integer.parseInt(entry.substring(2));
+                if(index >= 0 && index < names.size())
+                {
+                    apply_remove(index);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // Invalid entry: ignore it
+        }
+    }
+
+    // Request a compaction of the storage. It is done by the background thread.
+    public void compact()
+    {
+        ArrayList<String> snapshot = new ArrayList<String>(names);
+        synchronized(pending_entries)
+        {
+            pending_entries.setLength(0);               // The entries are included in the snapshot
+            pending_snapshot = snapshot;
+            nb_of_entries    = 0;
+            schedule_flush();
+        }
+    }
+
+    // Wait until all the changes are written
+    public void sync() throws IOException
+    {
+        if(writer == null)
+        {
+            return;
+        }
+        try
+        {
+            writer.submit(new Runnable() { public void run() { } }).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(e.getCause().toString());
+        }
+    }
+
+    private void log(String entry)
+    {
+        if(++nb_of_entries >= COMPACTION_PERIOD)
+        {
+            compact();
+            return;
+        }
+        synchronized(pending_entries)
+        {
+            pending_entries.append(entry).append('\n');
+            schedule_flush();
+        }
+    }
+
+    // Must be called with the lock on pending_entries
+    private void schedule_flush()
+    {
+        if(flush_scheduled)
+        {
+            return;         // The background thread will write the new entries with the previous ones
+        }
+        flush_scheduled = true;
+
+        if(writer == null)
+        {
+            // Daemon thread, so that it never keeps the process alive
+            writer = Executors.newSingleThreadExecutor(
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable runnable)
+                        {
+                            Thread thread = new Thread(runnable, "PilotRegistry");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        writer.execute(new Runnable()
+                       {
+                           public void run()
+                           {
+                               flush();
+                           }
+                       });
+    }
+
+    // Background thread: write the pending snapshot, if any, then the pending journal entries
+    private void flush()
+    {
+        String            entries;
+        ArrayList<String> snapshot;
+        synchronized(pending_entries)
+        {
+            entries          = pending_entries.toString();
+            snapshot         = pending_snapshot;
+            pending_entries.setLength(0);
+            pending_snapshot = null;
+            flush_scheduled  = false;
+        }
+
+        try
+        {
+            if(snapshot != null)
+            {
+                write_snapshot(snapshot);
+            }
+            if(entries.length() > 0)
+            {
+                boolean new_journal = (journal_file.length() == 0);
+                Writer  journal     = new OutputStreamWriter(new FileOutputStream(journal_file, true), CHARSET);
+                try
+                {
+                    if(new_journal)
+                    {
+                        journal.write(journal_header(names_checksum) + "\n");
+                    }
+                    journal.write(entries);
+                }
+                finally
+                {
+                    journal.close();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    // First line of a journal started on a text file with that checksum
+    private static String journal_header(long checksum)
+    {
+        return "G " + checksum;
+    }
+
+    // Atomic replacement of the text file, then atomic replacement of the journal by an empty one, started on the
+    // new text file. A journal left over by a crash between both replacements does not match the new text file.
+    private void write_snapshot(ArrayList<String> snapshot) throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        for(String name : snapshot)
+        {
+            text.append(name).append('\n');
+        }
+        CRC32 checksum = new CRC32();
+        replace_file(names_file, text.toString(), checksum);
+        replace_file(journal_file, journal_header(checksum.getValue()) + "\n", new CRC32());
+        names_checksum = checksum.getValue();
+    }
+
+    // Write a temporary file, sync it and rename it over the file
+    private static void replace_file(File file, String content, CRC32 checksum) throws IOException
+    {
+        File             temp_file = new File(file.getPath() + ".tmp");
+        FileOutputStream out       = new FileOutputStream(temp_file);
+        try
+        {
+            Writer writer = new OutputStreamWriter(new CheckedOutputStream(out, checksum), CHARSET);
+            writer.write(content);
+            writer.flush();
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+        if(!temp_file.renameTo(file))
+        {
+            throw new FileNotFoundException("Cannot replace " + file.getPath());
+        }
+    }
+}
@@ -21,9 +21,6 @@ public class PilotsCarsValidateActivity extends Activity
 {
     private CustomApplication main_application = null;
     
-    // Max number of groups to avoid overloading the UI
-    private static final int MAX_NUMBER_OF_GROUPS = 6;
- 
     //
     // Overridden methods
     //
@@ -34,6 +31,7 @@ public class PilotsCarsValidateActivity extends Activity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_pilots_cars_validate);
         main_application = (CustomApplication)getApplication();
+        main_application.awaitRestore();                  // The race history may still be restored in the background
         
         // Show the Up button in the action bar.
         setupActionBar();
@@ -50,14 +48,14 @@ public class PilotsCarsValidateActivity extends Activity
         
         
         TextView summary_2 = (TextView)findViewById(R.id.groups);
-        if(main_application.getNbOfGroups() <= MAX_NUMBER_OF_GROUPS)
+        if(main_application.isChampionshipSizeOK())
         {
             summary_2.setText(getResources().getString(R.string.final_validate_nb_of_groups) + " " + Integer.toString(main_application.getNbOfGroups()));
         }
         else
         {
             summary_2.setText(getResources().getString(R.string.final_validate_nb_of_groups) + " " + Integer.toString(main_application.getNbOfGroups())  + "\n\n\n" + 
-                              getResources().getString(R.string.nb_of_groups_warning_1) + " " + MAX_NUMBER_OF_GROUPS + " " + getResources().getString(R.string.nb_of_groups_warning_2));
+                              getResources().getString(R.string.championship_size_warning));
             summary_2.setTextColor(getResources().getColor(R.color.dark_red));
             
             Button button = (Button)findViewById(R.id.confirm_button);
@@ -104,7 +102,7 @@ public class PilotsCarsValidateActivity extends Activity
     
     public void gotoNextActivity(View v)
     {
-        if(main_application.getNbOfGroups() <= MAX_NUMBER_OF_GROUPS)
+        if(main_application.isChampionshipSizeOK())
         {
             // Reset the race history
             main_application.reset_race_history();
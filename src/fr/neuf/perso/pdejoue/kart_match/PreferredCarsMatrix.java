@@ -0,0 +1,149 @@
+/**
+ * KartMatch: PreferredCarsMatrix.java
+ *
+ *   The bipartite graph (pilots, cars) of the preferred cars, as a bit matrix: one row per pilot, and bit n of the row
+ *   is set if car number n is a preferred car of the pilot. The rows have the same layout as the bitset of CarPool, so
+ *   that a row is initialized with a bulk copy of the selected cars.
+ *
+ *   A preferred car is removed or restored in O(1). A race is applied (its cars are removed from the preferred cars of
+ *   its pilots) or reverted (they are restored) in O(number of pilots in the race).
+ *
+ *   The matrix is not copied by its readers: the matchers read the words of the rows directly (see getBits() and
+ *   getRowOffset()), and iterate the cars of a row in increasing order of car number, whatever the order in which the
+ *   cars were removed and restored.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.Arrays;
+
+public class PreferredCarsMatrix
+{
+    private int    nb_of_pilots   = 0;
+    private int    max_car_number = 0;
+    private int    row_words      = 1;              // Number of words of a row
+    private long[] bits           = new long[0];    // Row of pilot p: bits[p * row_words] .. bits[(p + 1) * row_words - 1]
+    private int[]  degree         = new int[0];     // Number of preferred cars of each pilot
+
+    // An empty matrix for the pilots 0..nb_of_pilots-1 and the cars 1..max_car_number. The arrays are reused if they
+    // are large enough.
+    public void reset(int nb_of_pilots, int max_car_number)
+    {
+        this.nb_of_pilots   = nb_of_pilots;
+        this.max_car_number = max_car_number;
+        row_words           = (max_car_number >> 6) + 1;
+        if(bits.length < nb_of_pilots * row_words)
+        {
+            bits = new long[nb_of_pilots * row_words];
+        }
+        if(degree.length < nb_of_pilots)
+        {
+            degree = new int[nb_of_pilots];
+        }
+        Arrays.fill(bits, 0, nb_of_pilots * row_words, 0L);
+        Arrays.fill(degree, 0, nb_of_pilots, 0);
+    }
+
+    public int getNbOfPilots()
+    {
+        return nb_of_pilots;
+    }
+
+    public int getMaxCarNumber()
+    {
+        return max_car_number;
+    }
+
+    // The preferred cars of the pilot are the selected cars of the pool (bulk copy)
+    public void setRow(int pilot_index, CarPool cars)
+    {
+        long[] words  = cars.getWords();
+        int    offset = pilot_index * row_words;
+        System.arraycopy(words, 0, bits, offset, Math.min(words.length, row_words));
+        degree[pilot_index] = cars.size();
+    }
+
+    public boolean contains(int pilot_index, int car_number)
+    {
+        return (car_number >= 1 && car_number <= max_car_number && (bits[pilot_index * row_words + (car_number >> 6)] & (1L << car_number)) != 0);
+    }
+
+    // Returns false if the car was not a preferred car of the pilot
+    public boolean remove(int pilot_index, int car_number)
+    {
+        if(!contains(pilot_index, car_number))
+        {
+            return false;
+        }
+        bits[pilot_index * row_words + (car_number >> 6)] &= ~(1L << car_number);
+        degree[pilot_index]--;
+        return true;
+    }
+
+    // Returns false if the car was already a preferred car of the pilot, or if the car number is out of range
+    public boolean restore(int pilot_index, int car_number)
+    {
+        if(car_number < 1 || car_number > max_car_number || contains(pilot_index, car_number))
+        {
+            return false;
+        }
+        bits[pilot_index * row_words + (car_number >> 6)] |= (1L << car_number);
+        degree[pilot_index]++;
+        return true;
+    }
+
+    // Remove the cars of the maximum matching of a race from the preferred cars of its pilots (the repeats are ignored)
+    public void applyRace(CarAssignment race)
+    {
+        int end_pilot = Math.min(race.getEndPilot(), nb_of_pilots);
+        for(int pilot_index = race.getFirstPilot(); pilot_index < end_pilot; pilot_index++)
+        {
+            if(!race.isRepeat(pilot_index))
+            {
+                remove(pilot_index, race.getCarOfPilot(pilot_index));
+            }
+        }
+    }
+
+    // Reversed operation compared to applyRace()
+    public void revertRace(CarAssignment race)
+    {
+        int end_pilot = Math.min(race.getEndPilot(), nb_of_pilots);
+        for(int pilot_index = race.getFirstPilot(); pilot_index < end_pilot; pilot_index++)
+        {
+            if(!race.isRepeat(pilot_index))
+            {
+                restore(pilot_index, race.getCarOfPilot(pilot_index));
+            }
+        }
+    }
+
+    public int getDegree(int pilot_index)
+    {
+        return degree[pilot_index];
+    }
+
+    //
+    // View on the matrix, read directly by the matchers. It must not be modified.
+    //
+
+    public long[] getBits()
+    {
+        return bits;
+    }
+
+    public int getRowWords()
+    {
+        return row_words;
+    }
+
+    public int getRowOffset(int pilot_index)
+    {
+        return pilot_index * row_words;
+    }
+}
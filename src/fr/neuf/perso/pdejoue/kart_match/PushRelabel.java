@@ -0,0 +1,259 @@
+/**
+ * KartMatch: PushRelabel.java
+ *
+ *   Push-relabel algorithm to find a maximum matching on a bipartite graph, with a FIFO queue of active vertices,
+ *   double pushes and global relabeling.
+ *
+ *   Each vertex v of V has a label, which is a lower bound of the length of the shortest alternating path from v to
+ *   a free vertex of V. The unmatched vertices of U are active: an active vertex u takes the neighbour v with the
+ *   lowest label (push), which frees the vertex of U previously matched with v, if any (second push of the double
+ *   push). The label of v is then raised to the second lowest label among the neighbours of u, plus 2 (relabel).
+ *   A vertex u whose neighbours all have a label of at least 2*nb_v cannot be matched anymore: there is no augmenting
+ *   path starting from it. Every once in a while, the labels are set to the exact distances by a BFS from the free
+ *   vertices of V (global relabel). The worst case complexity is O(n * m), but in practice it often does much less
+ *   work than the phases of Hopcroft-Karp on the graphs with long augmenting paths.
+ *
+ *   Useful information regarding that algorithm can be found there:
+ *      - http://en.wikipedia.org/wiki/Push%E2%80%93relabel_maximum_flow_algorithm
+ *      - B. V. Cherkassky, A. V. Goldberg, P. Martin, J. C. Setubal and J. Stolfi, "Augment or push: a computational
+ *        study of bipartite matching and unit-capacity flow algorithms", Journal of Experimental Algorithmics 3 (1998).
+ *      - K. Kaya, J. Langguth, F. Manne and B. Ucar, "Push-relabel based algorithms for the maximum transversal
+ *        problem", Computers & Operations Research 40 (2013).
+ *
+ *   The output is randomized by shuffling the initial queue of active vertices and by breaking the ties between the
+ *   neighbours with the lowest label at random. Input and output: see MaximumMatcher.java.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PushRelabel implements MaximumMatcher
+{
+    private Random             random;
+    private HopcroftKarp.Stats stats    = null;     // Metrics of the solves, if requested (see HopcroftKarp.Stats)
+
+    // Working memory, kept from one call to the next. The arrays are never shrunk.
+    private int[] rev_offsets   = new int[1];
+    private int[] rev_adjacency = new int[0];
+    private int[] label_v       = new int[0];
+    private int[] active_u      = new int[0];         // FIFO queue of the active vertices of U (circular buffer)
+    private int[] bfs_queue     = new int[0];         // Queue of the BFS of the global relabel
+
+    public PushRelabel()
+    {
+        this(new FastRandom());
+    }
+
+    public PushRelabel(Random random)
+    {
+        this.random = random;
+    }
+
+    public Random getRandom()
+    {
+        return random;
+    }
+
+    // Attach a Stats object to collect the metrics of the next solves, or null (the default) to disable the collection.
+    public void setStats(HopcroftKarp.Stats stats)
+    {
+        this.stats = stats;
+    }
+
+    private void reserve(int nb_u, int nb_v, int nb_edges)
+    {
+        if(rev_offsets.length < nb_v + 1)
+        {
+            rev_offsets   = new int[nb_v + 1];
+            label_v       = new int[nb_v];
+            bfs_queue     = new int[nb_v];
+        }
+        if(active_u.length < nb_u)
+        {
+            active_u      = new int[nb_u];
+        }
+        if(rev_adjacency.length < nb_edges)
+        {
+            rev_adjacency = new int[nb_edges];
+        }
+    }
+
+    public int findMaximumMatching(int     nb_u,
+                                   int     nb_v,
+                                   int[]   offsets,
+                                   int[]   adjacency,
+                                   int[]   matched_u,
+                                   int[]   matched_v,
+                                   boolean warm_start,
+                                   boolean randomize)
+    {
+        int nb_edges = offsets[nb_u];
+
+        reserve(nb_u, nb_v, nb_edges);
+        HopcroftKarp.build_reverse_adjacency(nb_u, nb_v, offsets, adjacency, rev_offsets, rev_adjacency);
+
+        int matching_size = 0;
+        if(warm_start)
+        {
+            matching_size = HopcroftKarp.validate_initial_matching(nb_u, nb_v, offsets, adjacency, matched_u, matched_v);
+        }
+        else
+        {
+            Arrays.fill(matched_u, 0, nb_u, -1);
+            Arrays.fill(matched_v, 0, nb_v, -1);
+        }
+
+        // Initial queue of active vertices: the unmatched vertices of U which have neighbours
+        int queue_head = 0;
+        int queue_size = 0;
+        for(int u = 0; u < nb_u; u++)
+        {
+            if(matched_u[u] == -1 && offsets[u + 1] > offsets[u])
+            {
+                active_u[queue_size++] = u;
+            }
+        }
+        if(randomize)
+        {
+            HopcroftKarp.shuffle(active_u, 0, queue_size, random);
+        }
+
+        // The labels are recomputed when the work done since the last global relabel exceeds the cost of a global relabel
+        int  max_label        = 2 * nb_v;
+        long relabel_period   = nb_u + nb_v + nb_edges;
+        long work             = 0;
+        long start_time       = (stats != null) ? System.nanoTime() : 0;
+        int  initial_size     = matching_size;
+        global_relabel(nb_v, matched_u, matched_v, max_label);
+
+        while(queue_size > 0)
+        {
+            int u      = active_u[queue_head];
+            queue_head = (queue_head + 1 == nb_u) ? 0 : queue_head + 1;
+            queue_size--;
+
+            // Look for the neighbours of u with the lowest and second lowest labels
+            int best_v       = -1;
+            int best_label   = max_label;
+            int second_label = max_label;
+            int nb_ties      = 0;
+            for(int edge_idx = offsets[u]; edge_idx < offsets[u + 1]; edge_idx++)
+            {
+                int v     = adjacency[edge_idx];
+                int label = label_v[v];
+                if(label < best_label)
+                {
+                    second_label = best_label;
+                    best_label   = label;
+                    best_v       = v;
+                    nb_ties      = 1;
+                }
+                else if(label == best_label && best_v != -1)
+                {
+                    second_label = label;
+                    if(randomize && random.nextInt(++nb_ties) == 0)         // Pick one of the ties uniformly
+                    {
+                        best_v = v;
+                    }
+                }
+                else if(label < second_label)
+                {
+                    second_label = label;
+                }
+            }
+            work += offsets[u + 1] - offsets[u] + 1;
+            if(stats != null)
+            {
+                stats.nb_edges_scanned += offsets[u + 1] - offsets[u];
+            }
+
+            if(best_v == -1)
+            {
+                continue;           // No augmenting path from u: it stays unmatched
+            }
+
+            // Double push: u takes best_v, and the vertex previously matched with best_v becomes active
+            int previous_u    = matched_v[best_v];
+            matched_u[u]      = best_v;
+            matched_v[best_v] = u;
+            label_v[best_v]   = Math.min(second_label + 2, max_label);
+            if(previous_u != -1)
+            {
+                matched_u[previous_u] = -1;
+                active_u[(queue_head + queue_size) % nb_u] = previous_u;
+                queue_size++;
+            }
+            else
+            {
+                matching_size++;
+            }
+
+            if(work >= relabel_period)
+            {
+                global_relabel(nb_v, matched_u, matched_v, max_label);
+                work = 0;
+            }
+        }
+
+        if(stats != null)
+        {
+            stats.dfs_ns              += System.nanoTime() - start_time;
+            stats.nb_augmenting_paths += matching_size - initial_size;
+        }
+
+        return matching_size;
+    }
+
+    // Set the label of each vertex of V to the length of the shortest alternating path to a free vertex of V
+    // (or max_label if there is none), with a BFS on the reversed graph starting from the free vertices of V.
+    private void global_relabel(int nb_v, int[] matched_u, int[] matched_v, int max_label)
+    {
+        long start_time = (stats != null) ? System.nanoTime() : 0;
+        int  bfs_size   = 0;
+        for(int v = 0; v < nb_v; v++)
+        {
+            if(matched_v[v] == -1)
+            {
+                label_v[v]            = 0;
+                bfs_queue[bfs_size++] = v;
+            }
+            else
+            {
+                label_v[v]            = max_label;
+            }
+        }
+
+        for(int idx = 0; idx < bfs_size; idx++)
+        {
+            int v = bfs_queue[idx];
+            if(stats != null)
+            {
+                stats.nb_edges_scanned += rev_offsets[v + 1] - rev_offsets[v];
+            }
+            for(int edge_idx = rev_offsets[v]; edge_idx < rev_offsets[v + 1]; edge_idx++)
+            {
+                int next_v = matched_u[rev_adjacency[edge_idx]];
+                if(next_v != -1 && label_v[next_v] == max_label)
+                {
+                    label_v[next_v]       = label_v[v] + 2;
+                    bfs_queue[bfs_size++] = next_v;
+                }
+            }
+        }
+
+        if(stats != null)
+        {
+            long time_spent         = System.nanoTime() - start_time;
+            stats.bfs_ns           += time_spent;
+            stats.dfs_ns           -= time_spent;          // Counted in the total time of the pushes
+            stats.add_phase(0);
+        }
+    }
+}
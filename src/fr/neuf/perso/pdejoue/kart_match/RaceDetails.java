@@ -10,16 +10,18 @@ public class RaceDetails
 {
     public int group_nb;        // Starts at 1
     public int race_nb;         // Starts at 1, this is the race number in group 'group_nb'
+    public long seed;           // Seed of the random matching, see CustomApplication.generate_random_pilot_to_car_mapping(),
+                                // or CarAssignment.NO_SEED if the race cannot be replayed
     
-    HopcroftKarp.Result pilot_to_car_mapping = null; 
+    CarAssignment pilot_to_car_mapping = null;      // Frozen, see CustomApplication.save_in_race_history()
     
     public int getNbOfPilots()
     {
-        return (pilot_to_car_mapping.matching.size() + pilot_to_car_mapping.unmatched.size());
+        return pilot_to_car_mapping.getNbOfPilots();
     }
     
     public boolean isTherePilot(int pilot_id)
     {
-        return (pilot_to_car_mapping.matching.indexOfKey(pilot_id) >= 0  || pilot_to_car_mapping.unmatched.indexOfKey(pilot_id) >= 0);
+        return pilot_to_car_mapping.hasPilot(pilot_id);
     }
 }
@@ -6,8 +6,6 @@
  */
 package fr.neuf.perso.pdejoue.kart_match;
 
-import java.util.List;
-
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -16,14 +14,19 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.support.v4.app.ActivityCompat;
+import android.text.InputType;
+import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -32,24 +35,46 @@ public class RaceHistoryActivity extends Activity
 {
     private CustomApplication main_application = null;
     private ListView          race_list = null;
-    private List<String>      race_strings = null;
+    private RaceHistorySource race_source = null;
     
     //
     // Custom Adapter class for the ListView
     //
     
     private final static int DELETE_BUTTON_UNIQUE_ID = 789;
-    public class CustomArrayAdapter extends ArrayAdapter<String>
+    // The rows are bound to the race history source: only the visible races are formatted
+    public class RaceHistoryAdapter extends BaseAdapter
     {
-        public CustomArrayAdapter(Context context, int resource, int textViewResourceId, List<String> objects) 
+        private LayoutInflater inflater;
+        
+        public RaceHistoryAdapter(Context context) 
         { 
-            super(context, resource, textViewResourceId, objects); 
+            inflater = LayoutInflater.from(context);
+        }
+        
+        @Override
+        public int getCount()
+        {
+            return race_source.size();
+        }
+        
+        @Override
+        public Object getItem(int position)
+        {
+            return race_source.getLabel(position);
+        }
+        
+        @Override
+        public long getItemId(int position)
+        {
+            return position;
         }
         
         @Override
         public View getView(int position, View convertView, ViewGroup parent) 
         {
-            LinearLayout last_race  = (LinearLayout)super.getView(position, convertView, parent);
+            LinearLayout last_race  = (LinearLayout)((convertView != null) ? convertView : inflater.inflate(R.layout.race_list_view, parent, false));
+            ((TextView)last_race.findViewById(R.id.text1)).setText(race_source.getLabel(position));
                 
             // If this View is the last in the history list, and it does not have a delete button, add it
             if(position == (main_application.getRaceHistorySize()-1) &&
@@ -58,7 +83,7 @@ public class RaceHistoryActivity extends Activity
                 // Add a "delete" button to the last race in the history.  
                 // For information about how to add a button to a ListView and still keep it clickable, 
                 // read this: http://android.cyrilmottier.com/?p=525
-                Button new_button = new Button(getContext());
+                Button new_button = new Button(last_race.getContext());
                 new_button.setText(getResources().getString(R.string.del_last_race_button));
                 new_button.setOnClickListener(last_race_delete_handler);
                 new_button.setId(DELETE_BUTTON_UNIQUE_ID);
@@ -124,6 +149,15 @@ public class RaceHistoryActivity extends Activity
        }
    };
    
+   // Called on the UI thread once the live matching of every group is solved
+   private Runnable live_matching_ready_handler = new Runnable()
+   {
+       public void run()
+       {
+           refresh_menu();
+       }
+   };
+   
    //
    // Overridden methods
    //
@@ -134,12 +168,13 @@ public class RaceHistoryActivity extends Activity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_race_history);
         main_application = (CustomApplication)getApplication();
+        main_application.awaitRestore();                  // The race history may still be restored in the background
         
         // List view in this activity
         race_list = (ListView)findViewById(R.id.race_list);
         
         // List of races
-        race_strings = main_application.getRaceHistoryList();
+        race_source = main_application.getRaceHistorySource();
         
         // Show the Up button in the action bar.
         setupActionBar();
@@ -150,7 +185,11 @@ public class RaceHistoryActivity extends Activity
     {    
         super.onResume();
           
+        // The history may have changed in another Activity (new race, Grand Prix): list, introduction text and menu
         build_list_view();       
+        
+        // The Grand Prix waits for the live matching, which may still be solved in the background
+        main_application.onLiveMatchingReady(live_matching_ready_handler);
     }
 
     /**
@@ -169,10 +208,25 @@ public class RaceHistoryActivity extends Activity
     public boolean onCreateOptionsMenu(Menu menu) 
     {
         // Inflate the menu; this adds items to the action bar if it is present.
+        getMenuInflater().inflate(R.menu.history_menu, menu);
         getMenuInflater().inflate(R.menu.options_menu, menu);
         return true;
     }
     
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) 
+    {
+        menu.findItem(R.id.undo_menu).setEnabled(main_application.canUndo());
+        menu.findItem(R.id.redo_menu).setEnabled(main_application.canRedo());
+        menu.findItem(R.id.grand_prix_menu).setEnabled(main_application.isLiveMatchingReady() && main_application.allGroupSizesOK());
+        
+        // Debug builds only: collection of the metrics of the solver
+        MenuItem metrics_item = menu.findItem(R.id.solver_metrics_menu);
+        metrics_item.setVisible(main_application.isDebuggable());
+        metrics_item.setChecked(main_application.getSolverMetrics() != null);
+        return super.onPrepareOptionsMenu(menu);
+    }
+    
     @Override
     public boolean onOptionsItemSelected(MenuItem item) 
     {
@@ -182,6 +236,20 @@ public class RaceHistoryActivity extends Activity
             case R.id.about_menu:
                 main_application.about_dialog(this);
                 return true;
+            case R.id.undo_menu:
+                main_application.undo();
+                refresh_list_view();
+                return true;
+            case R.id.redo_menu:
+                main_application.redo();
+                refresh_list_view();
+                return true;
+            case R.id.grand_prix_menu:
+                grand_prix_dialog();
+                return true;
+            case R.id.solver_metrics_menu:
+                toggle_solver_metrics();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -231,29 +299,95 @@ public class RaceHistoryActivity extends Activity
     
     public void build_list_view()
     {       
-        CustomArrayAdapter race_list_adapter = new CustomArrayAdapter(this, R.layout.race_list_view, R.id.text1, race_strings);
+        RaceHistoryAdapter race_list_adapter = new RaceHistoryAdapter(this);
         
         race_list.setAdapter(race_list_adapter);
         race_list.setOnItemClickListener(race_loader); 
         
-        // In case the history is empty, edit the introduction text accordingly
-        if(race_strings.isEmpty())
-        {
-            TextView text = (TextView)findViewById(R.id.history_introduction);
-            text.setText(R.string.empty_history);
-        }
-        
+        update_introduction_text();
+        refresh_menu();
     }
 
-    @SuppressWarnings("unchecked")
     public void refresh_list_view()
     {
-        // Update list
-        String last_race_str = race_strings.get(race_strings.size()-1);  // Name of last race
-        race_strings = main_application.getRaceHistoryList();
+        // The last race was removed from the history, or a change was undone or redone: notify the Adapter
+        ((BaseAdapter)race_list.getAdapter()).notifyDataSetChanged();
+        update_introduction_text();
+        refresh_menu();
+    }
+    
+    private void update_introduction_text()
+    {
+        // In case the history is empty, edit the introduction text accordingly
+        TextView text = (TextView)findViewById(R.id.history_introduction);
+        text.setText(race_source.size() == 0 ? R.string.empty_history : R.string.history_introduction);
+    }
+    
+    // Update the undo and redo items of the action bar: onPrepareOptionsMenu() is only called again once the menu is
+    // invalidated. Before Honeycomb, the menu is prepared each time it is opened, and this has no effect.
+    private void refresh_menu()
+    {
+        ActivityCompat.invalidateOptionsMenu(this);
+    }
+    
+    // Ask for the number of races of the Grand Prix, then generate them all at once and save them in the history (see
+    // CustomApplication.generate_grand_prix_schedule())
+    private void grand_prix_dialog()
+    {
+        final int      max_nb_of_races = main_application.getMaxNbOfGrandPrixRaces();
+        final EditText nb_of_races     = new EditText(this);
+        nb_of_races.setInputType(InputType.TYPE_CLASS_NUMBER);
+        nb_of_races.setText(Integer.toString(max_nb_of_races));
         
-        // Notify the Adapter
-        ((ArrayAdapter<String>)race_list.getAdapter()).remove(last_race_str);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.grand_prix_dialog_title);
+        builder.setCancelable(true);
+        builder.setMessage(getResources().getString(R.string.grand_prix_dialog_message, max_nb_of_races));
+        builder.setView(nb_of_races);
+        builder.setPositiveButton(android.R.string.ok,
+                    new DialogInterface.OnClickListener() 
+                    {
+                        public void onClick(DialogInterface dialog, int id) 
+                        {
+                            int nb = 0;
+                            try
+                            {
+                                nb = Integer.parseInt(nb_of_races.getText().toString());
+                            }
+                            catch (NumberFormatException e)
+                            {
+                                return;             // Empty field
+                            }
+                            main_application.generate_grand_prix_schedule(Math.max(1, Math.min(nb, max_nb_of_races)));
+                            refresh_list_view();
+                        }
+                    });       
+        builder.setNegativeButton(android.R.string.cancel,
+                    new DialogInterface.OnClickListener() 
+                    {
+                        public void onClick(DialogInterface dialog, int id) 
+                        {
+                            dialog.cancel();
+                        }
+                    });
+        
+        AlertDialog alert = builder.create();
+        alert.show();
+    }
+    
+    // Start collecting the metrics of the solver, or stop and write the metrics of the last solves to the log
+    private void toggle_solver_metrics()
+    {
+        if(main_application.getSolverMetrics() == null)
+        {
+            main_application.setSolverMetricsEnabled(true);
+        }
+        else
+        {
+            Log.d("KartMatch.SolverMetrics", main_application.dump_solver_metrics());
+            main_application.setSolverMetricsEnabled(false);
+        }
+        refresh_menu();
     }
     
     public void newRaceActivity(View v)
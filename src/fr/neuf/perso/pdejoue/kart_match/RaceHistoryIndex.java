@@ -0,0 +1,175 @@
+/**
+ * KartMatch: RaceHistoryIndex.java
+ *
+ *   The race history, in the order of the races, with an index of the races of each group and of each pilot.
+ *
+ *   The races are only added at the end of the history, and removed from the end. The lists of the index are arrays
+ *   of race indexes (position in the history) in increasing order, so that adding or removing a race only touches the
+ *   end of the list of its group and of the lists of its pilots: O(number of pilots in the race). The number of races
+ *   of a group, and the races of a group or of a pilot, are O(1) whatever the length of the history.
+ *
+ *   The lists grow as needed: the group and pilot numbers are not bounded beforehand.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+public class RaceHistoryIndex implements Iterable<RaceDetails>
+{
+    private ArrayList<RaceDetails> races          = new ArrayList<RaceDetails>();
+    private List<RaceDetails>      races_view     = Collections.unmodifiableList(races);
+    private int[][]                group_races    = new int[1][];           // Races of each group, by group number
+    private int[]                  nb_group_races = new int[1];
+    private int[][]                pilot_races    = new int[0][];           // Races of each pilot, by pilot index
+    private int[]                  nb_pilot_races = new int[0];
+
+    public int size()
+    {
+        return races.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return races.isEmpty();
+    }
+
+    public RaceDetails get(int race_idx)
+    {
+        return races.get(race_idx);
+    }
+
+    // The races in the order of the history (read-only)
+    public Iterator<RaceDetails> iterator()
+    {
+        return races_view.iterator();
+    }
+
+    // Number of races of the group. O(1).
+    public int getNbOfRaces(int group_nb)
+    {
+        return (group_nb >= 0 && group_nb < nb_group_races.length) ? nb_group_races[group_nb] : 0;
+    }
+
+    // The races of the group, in increasing order: the first getNbOfRaces(group_nb) entries of the array, which must not
+    // be modified. It is not a copy: it changes with the history.
+    public int[] getGroupRaces(int group_nb)
+    {
+        return (group_nb >= 0 && group_nb < group_races.length && group_races[group_nb] != null) ? group_races[group_nb] : new int[0];
+    }
+
+    // Number of races of the pilot. O(1).
+    public int getNbOfPilotRaces(int pilot_index)
+    {
+        return (pilot_index >= 0 && pilot_index < nb_pilot_races.length) ? nb_pilot_races[pilot_index] : 0;
+    }
+
+    // The races of the pilot, in increasing order: the first getNbOfPilotRaces(pilot_index) entries of the array, which
+    // must not be modified. It is not a copy: it changes with the history.
+    public int[] getPilotRaces(int pilot_index)
+    {
+        return (pilot_index >= 0 && pilot_index < pilot_races.length && pilot_races[pilot_index] != null) ? pilot_races[pilot_index] : new int[0];
+    }
+
+    // Add a race at the end of the history
+    public void add(RaceDetails rd)
+    {
+        int race_idx = races.size();
+        races.add(rd);
+
+        if(rd.group_nb >= group_races.length)
+        {
+            group_races    = grow(group_races, rd.group_nb + 1);
+            nb_group_races = grow(nb_group_races, rd.group_nb + 1);
+        }
+        group_races[rd.group_nb] = push(group_races[rd.group_nb], nb_group_races[rd.group_nb]++, race_idx);
+
+        CarAssignment assignment = rd.pilot_to_car_mapping;
+        if(assignment.getEndPilot() > pilot_races.length)
+        {
+            pilot_races    = grow(pilot_races, assignment.getEndPilot());
+            nb_pilot_races = grow(nb_pilot_races, assignment.getEndPilot());
+        }
+        for(int pilot_index = assignment.getFirstPilot(); pilot_index < assignment.getEndPilot(); pilot_index++)
+        {
+            if(assignment.hasPilot(pilot_index))
+            {
+                pilot_races[pilot_index] = push(pilot_races[pilot_index], nb_pilot_races[pilot_index]++, race_idx);
+            }
+        }
+    }
+
+    // Remove the last race of the history. Returns that race, or null if the history is empty.
+    public RaceDetails removeLast()
+    {
+        if(races.isEmpty())
+        {
+            return null;
+        }
+        RaceDetails rd = races.remove(races.size() - 1);
+
+        // The race is the last one of each of its lists
+        nb_group_races[rd.group_nb]--;
+        CarAssignment assignment = rd.pilot_to_car_mapping;
+        for(int pilot_index = assignment.getFirstPilot(); pilot_index < assignment.getEndPilot(); pilot_index++)
+        {
+            if(assignment.hasPilot(pilot_index))
+            {
+                nb_pilot_races[pilot_index]--;
+            }
+        }
+
+        return rd;
+    }
+
+    public void clear()
+    {
+        races.clear();
+        group_races    = new int[1][];
+        nb_group_races = new int[1];
+        pilot_races    = new int[0][];
+        nb_pilot_races = new int[0];
+    }
+
+    //
+    // Class specific methods
+    //
+
+    // Store value at position length of the list, which is reallocated if it is full
+    private static int[] push(int[] list, int length, int value)
+    {
+        if(list == null || length == list.length)
+        {
+            int[] new_list = new int[Math.max(2 * length, 4)];
+            if(list != null)
+            {
+                System.arraycopy(list, 0, new_list, 0, length);
+            }
+            list = new_list;
+        }
+        list[length] = value;
+        return list;
+    }
+
+    private static int[][] grow(int[][] lists, int min_length)
+    {
+        int[][] new_lists = new int[Math.max(2 * lists.length, min_length)][];
+        System.arraycopy(lists, 0, new_lists, 0, lists.length);
+        return new_lists;
+    }
+
+    private static int[] grow(int[] counts, int min_length)
+    {
+        int[] new_counts = new int[Math.max(2 * counts.length, min_length)];
+        System.arraycopy(counts, 0, new_counts, 0, counts.length);
+        return new_counts;
+    }
+}
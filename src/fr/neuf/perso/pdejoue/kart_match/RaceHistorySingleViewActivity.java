@@ -34,6 +34,7 @@ public class RaceHistorySingleViewActivity extends Activity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_race_history_single_view);
         main_application = (CustomApplication)getApplication();
+        main_application.awaitRestore();                  // The race history may still be restored in the background
         
         // Show the Up button in the action bar.
         setupActionBar();
@@ -43,7 +44,7 @@ public class RaceHistorySingleViewActivity extends Activity
         int race_id = extras.getInt("race_id");
         
         TextView text = (TextView)findViewById(R.id.race_view_introduction);
-        text.setText(main_application.getRaceHistoryList().get(race_id));
+        text.setText(main_application.getRaceHistorySource().getLabel(race_id));
         
         build_scroll_view(main_application.get_race_history(race_id));
     }
@@ -108,15 +109,15 @@ public class RaceHistorySingleViewActivity extends Activity
                 new_horiz_layout.addView(new_image_view);
                 
                 EditText new_text_view_car_id = new EditText(this);
-                if(rd.pilot_to_car_mapping.matching.indexOfKey(index) >= 0)
+                if(!rd.pilot_to_car_mapping.isRepeat(index))
                 {
-                    new_text_view_car_id.setText(Integer.toString(rd.pilot_to_car_mapping.matching.get(index)));
+                    new_text_view_car_id.setText(Integer.toString(rd.pilot_to_car_mapping.getCarOfPilot(index)));
                 }
                 else
                 {
                     // This pilot wasn't in the maximum matching, he therefore is assigned to a car number he already got
                     // Signal that by writing the car number red.
-                    new_text_view_car_id.setText(Integer.toString(rd.pilot_to_car_mapping.unmatched.get(index)));
+                    new_text_view_car_id.setText(Integer.toString(rd.pilot_to_car_mapping.getCarOfPilot(index)));
                     new_text_view_car_id.setTextColor(getResources().getColor(R.color.dark_red));
                 }
                 new_text_view_car_id.setLayoutParams(new LinearLayout.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
@@ -0,0 +1,60 @@
+/**
+ * KartMatch: RaceHistorySource.java
+ *
+ *   Data source of the screens of the race history: the number of races, each race, and its label ("Group g, race r").
+ *
+ *   The labels are formatted on demand, when a row of the list is displayed, and the last ones are kept in a small LRU
+ *   cache, so that opening the history costs the same whatever the number of races. The cache is keyed by the race
+ *   itself, not by its position: a race deleted then replaced by a new one at the same position is formatted again.
+ *
+ *   The races are read from the race history of the application (see RaceHistoryIndex), which is indexed by position.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import android.support.v4.util.LruCache;
+
+public class RaceHistorySource
+{
+    private final static int LABEL_CACHE_SIZE = 64;             // More than the rows of a screen
+
+    private CustomApplication                 main_application;
+    private String                            group_prefix;     // Localized strings, looked up once (a new source is built
+                                                                // when the configuration changes, see CustomApplication)
+    private String                            race_prefix;
+    private LruCache<RaceDetails, String>     labels = new LruCache<RaceDetails, String>(LABEL_CACHE_SIZE);
+
+    public RaceHistorySource(CustomApplication main_application)
+    {
+        this.main_application = main_application;
+        this.group_prefix     = main_application.getResources().getString(R.string.group_capitalize) + " ";
+        this.race_prefix      = ", " + main_application.getResources().getString(R.string.race) + " ";
+    }
+
+    public int size()
+    {
+        return main_application.getRaceHistorySize();
+    }
+
+    public RaceDetails getRace(int position)
+    {
+        return main_application.get_race_history(position);
+    }
+
+    public String getLabel(int position)
+    {
+        RaceDetails rd    = getRace(position);
+        String      label = labels.get(rd);
+        if(label == null)
+        {
+            label = group_prefix + rd.group_nb + race_prefix + rd.race_nb;
+            labels.put(rd, label);
+        }
+        return label;
+    }
+}
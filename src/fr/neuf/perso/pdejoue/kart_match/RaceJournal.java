@@ -0,0 +1,398 @@
+/**
+ * KartMatch: RaceJournal.java
+ *
+ *   Durable journal of the championship, so that the race history survives the death of the process.
+ *
+ *   The journal is a binary file made of a header, which describes the championship, followed by the races, in
+ *   the order of the race history. All the races have a record of the same size, so that record i is at offset
+ *   header_size + i * record_size:
+ *      - Header:   magic number, version, number of pilots, max number of cars, number of groups, record size (6 ints),
+ *                  then one byte per car number 0..max_nb_of_cars (1 if the car is selected), then one short per pilot
+ *                  (group of the pilot). Each section is padded to a multiple of 8 bytes.
+ *      - Record:   group number, race number (2 ints), seed (long), then one short per pilot: the car number of the
+ *                  pilot, 0 if the pilot is not in the race, with bit REPEAT_BIT set if the assignment is a repeat.
+ *
+ *   The races are only appended, and removed from the end. The header is small and rewritten in place when the groups
+ *   of the pilots or the selected cars change. The writes are not forced to the storage one by one: sync() forces all
+ *   the writes since the previous call, and is called once per user action (a race, or a whole Grand Prix schedule).
+ *   A record which was not completely written is ignored, and removed, the next time the journal is opened. A header
+ *   whose sizes or groups are out of range is treated as no journal at all, and the races are only read up to the first
+ *   record whose group or car numbers are out of range: a damaged file never prevents the application from starting.
+ *
+ *   The journal is read through memory mappings of the file: one for the header, then one per window of the races, so
+ *   that no mapping exceeds MAX_MAPPING_SIZE whatever the size of the file.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+public class RaceJournal
+{
+    private static final int MAGIC        = 0x4B4D4A31;        // "KMJ1"
+    private static final int VERSION      = 1;
+    private static final int HEADER_INTS  = 6;
+    private static final int RECORD_INTS  = 4;                 // group number, race number, seed (2 ints)
+    private static final int REPEAT_BIT   = 0x8000;
+    private static final int MAX_MAPPING_SIZE = 1 << 26;       // 64 MB
+
+    private File         file;
+    private int          max_nb_of_pilots;                      // Limits of the championship, see CustomApplication.MAX_NB_OF_PILOTS
+    private int          max_car_number;                        // and CustomApplication.MAX_NB_OF_CARS
+    private FileChannel  channel        = null;
+    private boolean      dirty          = false;                // Writes not yet forced to the storage
+
+    // Description of the championship
+    private int          nb_of_pilots   = 0;
+    private int          max_nb_of_cars = 0;
+    private int          nb_of_groups   = 0;
+    private boolean[]    selected_cars  = new boolean[1];       // Indexed by car number
+    private int[]        pilot_group    = new int[0];
+    private int          header_size    = 0;
+    private int          record_size    = 0;
+    private int          nb_of_races    = 0;
+
+    private ByteBuffer   record_buffer  = null;
+
+    public RaceJournal(File file, int max_nb_of_pilots, int max_car_number)
+    {
+        this.file             = file;
+        this.max_nb_of_pilots = max_nb_of_pilots;
+        this.max_car_number   = max_car_number;
+    }
+
+    //
+    // Read
+    //
+
+    // Open the journal and read its header. Returns false if there is no valid journal, in which case the journal is
+    // empty until the next call to reset().
+    public boolean open() throws IOException
+    {
+        close();
+        channel     = new RandomAccessFile(file, "rw").getChannel();
+        nb_of_races = 0;
+
+        long file_size = channel.size();
+        if(file_size < HEADER_INTS * 4)
+        {
+            nb_of_pilots = 0;
+            return false;
+        }
+
+        // The sizes are checked before anything is allocated from them
+        long             max_header_size = HEADER_INTS * 4 + pad(max_car_number + 1) + pad(2 * max_nb_of_pilots);
+        MappedByteBuffer map             = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(file_size, max_header_size));
+        if(map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+           || map.getInt(8)  < 0 || map.getInt(8)  > max_nb_of_pilots
+           || map.getInt(12) < 0 || map.getInt(12) > max_car_number
+           || map.getInt(16) < 0 || map.getInt(16) > map.getInt(8))
+        {
+            nb_of_pilots = 0;
+            return false;
+        }
+        set_layout(map.getInt(8), map.getInt(12), map.getInt(16));
+        if(map.getInt(20) != record_size || file_size < header_size)
+        {
+            nb_of_pilots = 0;
+            return false;
+        }
+
+        int offset = HEADER_INTS * 4;
+        for(int car_number = 0; car_number <= max_nb_of_cars; car_number++)
+        {
+            selected_cars[car_number] = (map.get(offset + car_number) != 0);
+        }
+        offset += pad(max_nb_of_cars + 1);
+        for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
+        {
+            pilot_group[pilot_index] = map.getShort(offset + 2 * pilot_index);
+            if(pilot_group[pilot_index] < 1 || pilot_group[pilot_index] > nb_of_groups)
+            {
+                nb_of_pilots = 0;
+                return false;
+            }
+        }
+
+        // Drop the last record if it was not completely written
+        nb_of_races = (int)((file_size - header_size) / record_size);
+        if(file_size != header_size + (long)nb_of_races * record_size)
+        {
+            channel.truncate(header_size + (long)nb_of_races * record_size);
+        }
+
+        return true;
+    }
+
+    public int getNbOfPilots()
+    {
+        return nb_of_pilots;
+    }
+
+    public int getMaxNbOfCars()
+    {
+        return max_nb_of_cars;
+    }
+
+    public int getNbOfGroups()
+    {
+        return nb_of_groups;
+    }
+
+    public boolean isCarSelected(int car_number)
+    {
+        return (car_number >= 0 && car_number <= max_nb_of_cars && selected_cars[car_number]);
+    }
+
+    public int getPilotGroup(int pilot_index)
+    {
+        return pilot_group[pilot_index];
+    }
+
+    public int getNbOfRaces()
+    {
+        return nb_of_races;
+    }
+
+    // Read all the races, in the order of the race history. The car assignments are frozen. The journal is truncated
+    // before the first record which is out of range, if any.
+    public ArrayList<RaceDetails> readRaces() throws IOException
+    {
+        ArrayList<RaceDetails> races = new ArrayList<RaceDetails>(nb_of_races);
+        if(nb_of_races == 0)
+        {
+            return races;
+        }
+
+        MappedByteBuffer map           = null;
+        int              races_per_map = Math.max(1, MAX_MAPPING_SIZE / record_size);
+        short[]          car_list      = new short[nb_of_pilots];
+        for(int race_idx = 0; race_idx < nb_of_races; race_idx++)
+        {
+            if(race_idx % races_per_map == 0)
+            {
+                int nb_mapped = Math.min(races_per_map, nb_of_races - race_idx);
+                map = channel.map(FileChannel.MapMode.READ_ONLY, header_size + (long)race_idx * record_size, (long)nb_mapped * record_size);
+            }
+            int record_offset = (race_idx % races_per_map) * record_size;
+            map.position(record_offset + RECORD_INTS * 4);
+            map.asShortBuffer().get(car_list, 0, nb_of_pilots);
+
+            // Range of the pilots of the race
+            int first_pilot = 0;
+            int end_pilot   = nb_of_pilots;
+            while(first_pilot < end_pilot && car_list[first_pilot] == 0)
+            {
+                first_pilot++;
+            }
+            while(end_pilot > first_pilot && car_list[end_pilot - 1] == 0)
+            {
+                end_pilot--;
+            }
+
+            int group_nb = map.getInt(record_offset);
+            if(group_nb < 1 || group_nb > nb_of_groups || !are_cars_valid(car_list, first_pilot, end_pilot))
+            {
+                nb_of_races = race_idx;
+                channel.truncate(header_size + (long)nb_of_races * record_size);
+                dirty = true;
+                break;
+            }
+
+            CarAssignment assignment = new CarAssignment(first_pilot, end_pilot - first_pilot);
+            for(int pilot_index = first_pilot; pilot_index < end_pilot; pilot_index++)
+            {
+                int value = car_list[pilot_index] & 0xFFFF;
+                if(value != 0)
+                {
+                    assignment.setCarOfPilot(pilot_index, value & ~REPEAT_BIT, (value & REPEAT_BIT) != 0);
+                }
+            }
+            assignment.setSeed(map.getLong(record_offset + 8));
+
+            RaceDetails rd = new RaceDetails();
+            rd.group_nb             = group_nb;
+            rd.race_nb              = map.getInt(record_offset + 4);
+            rd.seed                 = assignment.getSeed();
+            rd.pilot_to_car_mapping = assignment.freeze();
+            races.add(rd);
+        }
+
+        return races;
+    }
+
+    //
+    // Write
+    //
+
+    // Start a new championship: the journal is emptied and its header is written
+    public void reset(int nb_of_pilots, int max_nb_of_cars, int nb_of_groups, CarPool car_pool, ArrayList<Integer> pilot_group) throws IOException
+    {
+        if(channel == null)
+        {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        set_layout(nb_of_pilots, max_nb_of_cars, nb_of_groups);
+        for(int car_number = 1; car_number <= max_nb_of_cars; car_number++)
+        {
+            selected_cars[car_number] = car_pool.contains(car_number);
+        }
+        for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
+        {
+            this.pilot_group[pilot_index] = pilot_group.get(pilot_index);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(header_size);
+        header.putInt(MAGIC).putInt(VERSION).putInt(nb_of_pilots).putInt(max_nb_of_cars).putInt(nb_of_groups).putInt(record_size);
+        for(int car_number = 0; car_number <= max_nb_of_cars; car_number++)
+        {
+            header.put((byte)(selected_cars[car_number] ? 1 : 0));
+        }
+        header.position(HEADER_INTS * 4 + pad(max_nb_of_cars + 1));
+        for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
+        {
+            header.putShort((short)this.pilot_group[pilot_index]);
+        }
+        header.clear();
+
+        channel.truncate(0);
+        write(header, 0);
+        nb_of_races = 0;
+    }
+
+    // Append a race at the end of the journal
+    public void append(RaceDetails rd) throws IOException
+    {
+        if(nb_of_pilots == 0)
+        {
+            return;
+        }
+
+        CarAssignment assignment = rd.pilot_to_car_mapping;
+        ByteBuffer    record     = record_buffer;
+        record.clear();
+        record.putInt(rd.group_nb).putInt(rd.race_nb).putLong(rd.seed);
+        for(int pilot_index = 0; pilot_index < nb_of_pilots; pilot_index++)
+        {
+            int car_number = assignment.getCarOfPilot(pilot_index);
+            record.putShort((short)(assignment.isRepeat(pilot_index) ? (car_number | REPEAT_BIT) : car_number));
+        }
+        while(record.hasRemaining())
+        {
+            record.put((byte)0);
+        }
+        record.flip();
+
+        write(record, header_size + (long)nb_of_races * record_size);
+        nb_of_races++;
+    }
+
+    // Remove the last race of the journal
+    public void removeLastRace() throws IOException
+    {
+        if(nb_of_races > 0)
+        {
+            nb_of_races--;
+            channel.truncate(header_size + (long)nb_of_races * record_size);
+            dirty = true;
+        }
+    }
+
+    public void setPilotGroup(int pilot_index, int group_nb) throws IOException
+    {
+        if(pilot_index < nb_of_pilots)
+        {
+            pilot_group[pilot_index] = group_nb;
+            ByteBuffer value = ByteBuffer.allocate(2);
+            value.putShort(0, (short)group_nb);
+            write(value, HEADER_INTS * 4 + pad(max_nb_of_cars + 1) + 2 * pilot_index);
+        }
+    }
+
+    public void setCarSelected(int car_number, boolean selected) throws IOException
+    {
+        if(car_number >= 0 && car_number <= max_nb_of_cars && nb_of_pilots != 0)
+        {
+            selected_cars[car_number] = selected;
+            ByteBuffer value = ByteBuffer.allocate(1);
+            value.put(0, (byte)(selected ? 1 : 0));
+            write(value, HEADER_INTS * 4 + car_number);
+        }
+    }
+
+    // Force the writes since the previous call to the storage
+    public void sync() throws IOException
+    {
+        if(dirty && channel != null)
+        {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    public void close() throws IOException
+    {
+        if(channel != null)
+        {
+            sync();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    //
+    // Class specific methods
+    //
+
+    private static int pad(int size)
+    {
+        return (size + 7) & ~7;
+    }
+
+    // Whether each pilot of a record is either out of the race (0) or has a car number in 1..max_nb_of_cars
+    private boolean are_cars_valid(short[] car_list, int first_pilot, int end_pilot)
+    {
+        for(int pilot_index = first_pilot; pilot_index < end_pilot; pilot_index++)
+        {
+            int value      = car_list[pilot_index] & 0xFFFF;
+            int car_number = value & ~REPEAT_BIT;
+            if(value != 0 && (car_number == 0 || car_number > max_nb_of_cars))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void set_layout(int nb_of_pilots, int max_nb_of_cars, int nb_of_groups)
+    {
+        this.nb_of_pilots   = nb_of_pilots;
+        this.max_nb_of_cars = max_nb_of_cars;
+        this.nb_of_groups   = nb_of_groups;
+        selected_cars       = new boolean[max_nb_of_cars + 1];
+        pilot_group         = new int[nb_of_pilots];
+        header_size         = HEADER_INTS * 4 + pad(max_nb_of_cars + 1) + pad(2 * nb_of_pilots);
+        record_size         = RECORD_INTS * 4 + pad(2 * nb_of_pilots);
+        record_buffer       = ByteBuffer.allocate(record_size);
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+        dirty = true;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * KartMatch: SolverMetrics.java
+ *
+ *   Rolling registry of the metrics of the last solves of the random matchings (see CustomApplication.GroupSolver).
+ *
+ *   Each solve records the size of its graph, its total time, and the metrics collected by the matching algorithm
+ *   (see HopcroftKarp.Stats). Only the last 'capacity' solves are kept. The registry can be dumped as text, with a
+ *   summary of the solves it holds followed by one line per solve, to find out why some races take longer to generate.
+ *
+ *   The registry is thread-safe: the groups of a race can be solved concurrently.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.Arrays;
+
+public class SolverMetrics
+{
+    public static final int DEFAULT_CAPACITY = 128;
+
+    // Metrics of a single solve
+    public static class Entry
+    {
+        public int   group_nb;
+        public int   nb_pilots;
+        public int   nb_cars;
+        public int   nb_edges;
+        public int   matching_size;
+        public int   nb_phases;
+        public int   max_depth;
+        public int[] phase_depth = new int[0];  // Layer depth reached by the BFS of each phase
+        public int   nb_augmenting_paths;
+        public int   pre_matching_size;
+        public long  nb_edges_scanned;
+        public long  pre_matching_ns;
+        public long  bfs_ns;
+        public long  dfs_ns;
+        public long  unmatched_ns;
+        public long  total_ns;
+
+        @Override
+        public String toString()
+        {
+            return "group " + group_nb + ": " + nb_pilots + " pilots, " + nb_cars + " cars, " + nb_edges + " edges"
+                 + " | matching " + matching_size + " (pre-matching " + pre_matching_size + ")"
+                 + " | phases " + nb_phases + ", depths " + Arrays.toString(phase_depth) + ", max depth " + max_depth
+                 + ", augmenting paths " + nb_augmenting_paths
+                 + " | edges scanned " + nb_edges_scanned
+                 + " | us: pre-matching " + pre_matching_ns / 1000 + ", bfs " + bfs_ns / 1000 + ", dfs " + dfs_ns / 1000
+                 + ", unmatched " + unmatched_ns / 1000 + ", total " + total_ns / 1000;
+        }
+    };
+
+    private Entry[] entries;
+    private int     nb_entries  = 0;        // Number of valid entries, at most entries.length
+    private int     next_entry  = 0;        // Index of the entry written by the next record (circular buffer)
+    private long    nb_solves   = 0;        // Number of solves recorded since the creation of the registry
+
+    public SolverMetrics()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SolverMetrics(int capacity)
+    {
+        entries = new Entry[Math.max(capacity, 1)];
+        for(int idx = 0; idx < entries.length; idx++)
+        {
+            entries[idx] = new Entry();
+        }
+    }
+
+    public synchronized void record(int group_nb, int nb_pilots, int nb_cars, int nb_edges, int matching_size, HopcroftKarp.Stats stats, long total_ns)
+    {
+        Entry entry = entries[next_entry];
+
+        entry.group_nb            = group_nb;
+        entry.nb_pilots           = nb_pilots;
+        entry.nb_cars             = nb_cars;
+        entry.nb_edges            = nb_edges;
+        entry.matching_size       = matching_size;
+        entry.nb_phases           = stats.nb_phases;
+        entry.max_depth           = stats.getMaxDepth();
+        entry.phase_depth         = Arrays.copyOf(stats.phase_depth, stats.nb_phases);
+        entry.nb_augmenting_paths = stats.nb_augmenting_paths;
+        entry.pre_matching_size   = stats.pre_matching_size;
+        entry.nb_edges_scanned    = stats.nb_edges_scanned;
+        entry.pre_matching_ns     = stats.pre_matching_ns;
+        entry.bfs_ns              = stats.bfs_ns;
+        entry.dfs_ns              = stats.dfs_ns;
+        entry.unmatched_ns        = stats.unmatched_ns;
+        entry.total_ns            = total_ns;
+
+        next_entry = (next_entry + 1) % entries.length;
+        nb_entries = Math.min(nb_entries + 1, entries.length);
+        nb_solves++;
+    }
+
+    public synchronized int size()
+    {
+        return nb_entries;
+    }
+
+    public synchronized long getNbOfSolves()
+    {
+        return nb_solves;
+    }
+
+    public synchronized void clear()
+    {
+        nb_entries = 0;
+        next_entry = 0;
+    }
+
+    // Dump the registry, oldest solve first
+    public synchronized String dump()
+    {
+        StringBuilder out          = new StringBuilder();
+        long          sum_total_ns = 0;
+        long          max_total_ns = 0;
+        long          sum_phases   = 0;
+        int           max_depth    = 0;
+        int           first_entry  = (next_entry - nb_entries + entries.length) % entries.length;
+
+        for(int idx = 0; idx < nb_entries; idx++)
+        {
+            Entry entry   = entries[(first_entry + idx) % entries.length];
+            sum_total_ns += entry.total_ns;
+            max_total_ns  = Math.max(max_total_ns, entry.total_ns);
+            sum_phases   += entry.nb_phases;
+            max_depth     = Math.max(max_depth, entry.max_depth);
+        }
+
+        out.append("Last ").append(nb_entries).append(" solves (").append(nb_solves).append(" in total)");
+        if(nb_entries > 0)
+        {
+            out.append(": mean time ").append(sum_total_ns / nb_entries / 1000).append(" us")
+               .append(", max time ").append(max_total_ns / 1000).append(" us")
+               .append(", mean phases ").append(sum_phases / nb_entries)
+               .append(", max depth ").append(max_depth);
+        }
+        out.append('\n');
+        for(int idx = 0; idx < nb_entries; idx++)
+        {
+            out.append(entries[(first_entry + idx) % entries.length].toString()).append('\n');
+        }
+
+        return out.toString();
+    }
+}
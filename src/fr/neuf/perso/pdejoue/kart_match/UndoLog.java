@@ -0,0 +1,117 @@
+/**
+ * KartMatch: UndoLog.java
+ *
+ *   Undo/redo log of the changes made to a championship in progress: the races added to or removed from the end of
+ *   the race history, and the pilots moved from one group to another. The selection of the cars is not logged: it is
+ *   only changed while a new championship is set up, and the log starts with the championship.
+ *
+ *   Each step is a small delta which holds what is needed to apply the change in both directions (the race itself is
+ *   shared with the race history, not copied). The log only stores the steps: they are applied by CustomApplication.
+ *   The steps are undone in the reverse order of their recording, and a new step clears the steps that could be redone.
+ *   Only the last MAX_NB_OF_STEPS steps are kept.
+ *
+ *
+ * Copyright (c) 2013 Pierre DEJOUE
+ *
+ * This software may be modified and distributed under the terms of the MIT license. See the LICENSE file for details.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import java.util.LinkedList;
+
+public class UndoLog
+{
+    public final static int MAX_NB_OF_STEPS = 1000;
+
+    // Kinds of steps
+    public final static int RACE_ADDED      = 1;    // race appended at the end of the race history
+    public final static int RACE_REMOVED    = 2;    // race removed from the end of the race history
+    public final static int PILOT_MOVED     = 3;    // pilot 'index' moved from group 'from_group' to group 'to_group'
+
+    public static class Step
+    {
+        public final int         kind;
+        public final int         index;             // Pilot index
+        public final int         from_group;
+        public final int         to_group;
+        public final RaceDetails race;
+
+        private Step(int kind, int index, int from_group, int to_group, RaceDetails race)
+        {
+            this.kind       = kind;
+            this.index      = index;
+            this.from_group = from_group;
+            this.to_group   = to_group;
+            this.race       = race;
+        }
+    }
+
+    private LinkedList<Step> undo_steps = new LinkedList<Step>();     // Last recorded step at the end
+    private LinkedList<Step> redo_steps = new LinkedList<Step>();     // Last undone step at the end
+
+    public void recordRaceAdded(RaceDetails rd)
+    {
+        record(new Step(RACE_ADDED, 0, 0, 0, rd));
+    }
+
+    public void recordRaceRemoved(RaceDetails rd)
+    {
+        record(new Step(RACE_REMOVED, 0, 0, 0, rd));
+    }
+
+    public void recordPilotMoved(int pilot_index, int from_group, int to_group)
+    {
+        record(new Step(PILOT_MOVED, pilot_index, from_group, to_group, null));
+    }
+
+    public boolean canUndo()
+    {
+        return !undo_steps.isEmpty();
+    }
+
+    public boolean canRedo()
+    {
+        return !redo_steps.isEmpty();
+    }
+
+    // The step to undo, which becomes the next step to redo. Returns null if there is none.
+    public Step undo()
+    {
+        if(undo_steps.isEmpty())
+        {
+            return null;
+        }
+        Step step = undo_steps.removeLast();
+        redo_steps.addLast(step);
+        return step;
+    }
+
+    // The step to redo, which becomes the next step to undo. Returns null if there is none.
+    public Step redo()
+    {
+        if(redo_steps.isEmpty())
+        {
+            return null;
+        }
+        Step step = redo_steps.removeLast();
+        undo_steps.addLast(step);
+        return step;
+    }
+
+    public void clear()
+    {
+        undo_steps.clear();
+        redo_steps.clear();
+    }
+
+    private void record(Step step)
+    {
+        undo_steps.addLast(step);
+        redo_steps.clear();
+        if(undo_steps.size() > MAX_NB_OF_STEPS)
+        {
+            undo_steps.removeFirst();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * KartMatch: BipartiteEdgeColoringTest.java
+ *
+ *   Tests of the edge coloring of the season plans (BipartiteEdgeColoring): validity of the coloring on random graphs,
+ *   and placement of the filler edges, i.e. of the repeats, compared with a maximum flow computed independently.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BipartiteEdgeColoringTest
+{
+    private static final int NB_OF_GRAPHS = 2000;
+
+    private BipartiteEdgeColoring.Workspace workspace = new BipartiteEdgeColoring.Workspace(new FastRandom(25));
+
+    // Each color class associates every vertex of U with a distinct vertex of V, and each edge is in exactly one class
+    @Test
+    public void colorClassesPartitionTheEdges()
+    {
+        Random random = new Random(1);
+        for(int graph = 0; graph < NB_OF_GRAPHS; graph++)
+        {
+            boolean[][] adjacent      = random_graph(random);
+            int         nb_u          = adjacent.length;
+            int         nb_v          = adjacent[0].length;
+            int[]       color_classes = new int[nb_u * nb_v];
+            int         nb_colors     = color(adjacent, color_classes);
+            assertEquals(max_degree(adjacent), nb_colors);
+
+            HashSet<Integer> colored_edges = new HashSet<Integer>();
+            for(int color = 0; color < nb_colors; color++)
+            {
+                boolean[] used = new boolean[nb_v];
+                for(int u = 0; u < nb_u; u++)
+                {
+                    int v = color_classes[color * nb_u + u];
+                    assertTrue("vertex of V used twice in a class", !used[(v >= 0) ? v : ~v]);
+                    used[(v >= 0) ? v : ~v] = true;
+                    if(v >= 0)
+                    {
+                        assertTrue("not an edge", adjacent[u][v]);
+                        assertTrue("edge colored twice", colored_edges.add(u * nb_v + v));
+                    }
+                }
+            }
+            assertEquals(nb_of_edges(adjacent), colored_edges.size());
+        }
+    }
+
+    // The filler edges of a vertex u go to distinct vertices of V which are not neighbours of u, whenever the filler
+    // edges can be placed that way: the number of the others is the minimum, given by a maximum flow.
+    @Test
+    public void fillerEdgesAvoidNeighbours()
+    {
+        Random random = new Random(2);
+        for(int graph = 0; graph < NB_OF_GRAPHS; graph++)
+        {
+            boolean[][] adjacent      = random_graph(random);
+            int         nb_u          = adjacent.length;
+            int         nb_v          = adjacent[0].length;
+            int[]       color_classes = new int[nb_u * nb_v];
+            int         nb_colors     = color(adjacent, color_classes);
+
+            int nb_of_misplaced = 0;
+            for(int u = 0; u < nb_u; u++)
+            {
+                boolean[] paired = new boolean[nb_v];
+                for(int color = 0; color < nb_colors; color++)
+                {
+                    int v = color_classes[color * nb_u + u];
+                    if(v < 0)
+                    {
+                        if(adjacent[u][~v] || paired[~v])
+                        {
+                            nb_of_misplaced++;
+                        }
+                        paired[~v] = true;
+                    }
+                }
+            }
+            assertEquals(min_nb_of_misplaced_fillers(adjacent, nb_colors), nb_of_misplaced);
+        }
+    }
+
+    // A random graph, dense half of the time since the filler edges are hard to place in dense graphs
+    private static boolean[][] random_graph(Random random)
+    {
+        int nb_v = 1 + random.nextInt(25);
+        int nb_u = 1 + random.nextInt(nb_v);
+        double density = (random.nextBoolean()) ? random.nextDouble() : 0.7 + 0.3 * random.nextDouble();
+
+        boolean[][] adjacent = new boolean[nb_u][nb_v];
+        for(int u = 0; u < nb_u; u++)
+        {
+            for(int v = 0; v < nb_v; v++)
+            {
+                adjacent[u][v] = random.nextDouble() < density;
+            }
+        }
+        return adjacent;
+    }
+
+    private int color(boolean[][] adjacent, int[] color_classes)
+    {
+        int   nb_u      = adjacent.length;
+        int   nb_v      = adjacent[0].length;
+        int[] offsets   = new int[nb_u + 1];
+        int[] adjacency = new int[nb_of_edges(adjacent)];
+        for(int u = 0; u < nb_u; u++)
+        {
+            offsets[u + 1] = offsets[u];
+            for(int v = 0; v < nb_v; v++)
+            {
+                if(adjacent[u][v])
+                {
+                    adjacency[offsets[u + 1]++] = v;
+                }
+            }
+        }
+        return BipartiteEdgeColoring.solve(nb_u, nb_v, offsets, adjacency, color_classes, workspace);
+    }
+
+    // Number of the filler edges of the real vertices of U which cannot go to distinct non neighbours: maximum flow from
+    // the vertices of U (capacity: their missing edges) to the vertices of V (capacity: their missing edges) through the
+    // pairs which are not edges (capacity 1). The virtual vertices of U take the rest, anywhere.
+    private static int min_nb_of_misplaced_fillers(boolean[][] adjacent, int degree)
+    {
+        int     nb_u     = adjacent.length;
+        int     nb_v     = adjacent[0].length;
+        int     source   = nb_u + nb_v;
+        int     sink     = source + 1;
+        int[][] capacity = new int[sink + 1][sink + 1];
+        int     total    = 0;
+        for(int u = 0; u < nb_u; u++)
+        {
+            int degree_u = 0;
+            for(int v = 0; v < nb_v; v++)
+            {
+                if(adjacent[u][v])
+                {
+                    degree_u++;
+                }
+                else
+                {
+                    capacity[u][nb_u + v] = 1;
+                }
+            }
+            capacity[source][u]  = degree - degree_u;
+            total               += degree - degree_u;
+        }
+        for(int v = 0; v < nb_v; v++)
+        {
+            int degree_v = 0;
+            for(int u = 0; u < nb_u; u++)
+            {
+                degree_v += (adjacent[u][v]) ? 1 : 0;
+            }
+            capacity[nb_u + v][sink] = degree - degree_v;
+        }
+
+        int   flow     = 0;
+        int[] previous = new int[sink + 1];
+        int[] queue    = new int[sink + 1];
+        while(true)
+        {
+            Arrays.fill(previous, -1);
+            previous[source] = source;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = source;
+            while(head < tail && previous[sink] == -1)
+            {
+                int x = queue[head++];
+                for(int y = 0; y <= sink; y++)
+                {
+                    if(previous[y] == -1 && capacity[x][y] > 0)
+                    {
+                        previous[y]   = x;
+                        queue[tail++] = y;
+                    }
+                }
+            }
+            if(previous[sink] == -1)
+            {
+                return total - flow;
+            }
+            for(int y = sink; y != source; y = previous[y])
+            {
+                capacity[previous[y]][y]--;
+                capacity[y][previous[y]]++;
+            }
+            flow++;
+        }
+    }
+
+    private static int max_degree(boolean[][] adjacent)
+    {
+        int   degree   = 0;
+        int[] degree_v = new int[adjacent[0].length];
+        for(boolean[] row : adjacent)
+        {
+            int degree_u = 0;
+            for(int v = 0; v < row.length; v++)
+            {
+                if(row[v])
+                {
+                    degree_u++;
+                    degree = Math.max(degree, ++degree_v[v]);
+                }
+            }
+            degree = Math.max(degree, degree_u);
+        }
+        return degree;
+    }
+
+    private static int nb_of_edges(boolean[][] adjacent)
+    {
+        int count = 0;
+        for(boolean[] row : adjacent)
+        {
+            for(boolean edge : row)
+            {
+                count += (edge) ? 1 : 0;
+            }
+        }
+        return count;
+    }
+}
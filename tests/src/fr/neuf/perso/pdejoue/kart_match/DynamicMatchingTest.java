@@ -0,0 +1,196 @@
+/**
+ * KartMatch: DynamicMatchingTest.java
+ *
+ *   Tests of the live matching of the championship (DynamicMatching): 60k random edits of small graphs (moves of the
+ *   vertices of U between the parts, withdrawal of the vertices of V, removal and insertion of edges, removal of the
+ *   matched edges as after a race), each followed by a query checked against a maximum matching solved from scratch.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DynamicMatchingTest
+{
+    private static final int NB_OF_GRAPHS = 400;
+    private static final int NB_OF_EDITS  = 150;           // Per graph
+
+    private int         nb_u;
+    private int         nb_v;                           // Vertex 0 of V is not a car number, and is never in the graph
+    private boolean[][] adjacent;
+    private int[]       part;
+    private boolean[]   active;
+
+    @Test
+    public void randomEditsKeepTheMatchingMaximum()
+    {
+        Random random = new Random(15);
+        for(int graph_idx = 0; graph_idx < NB_OF_GRAPHS; graph_idx++)
+        {
+            int                 nb_parts = 1 + random.nextInt(4);
+            PreferredCarsMatrix graph    = random_graph(random);
+            DynamicMatching     matching = new DynamicMatching(nb_u, nb_v, nb_parts, graph);
+            for(int u = 0; u < nb_u; u++)
+            {
+                part[u] = random.nextInt(nb_parts + 1);
+                matching.setPart(u, part[u]);
+            }
+            for(int v = 1; v < nb_v; v++)
+            {
+                if(random.nextInt(5) != 0)
+                {
+                    active[v] = true;
+                    matching.setActive(v, true);
+                }
+            }
+
+            for(int edit = 0; edit < NB_OF_EDITS; edit++)
+            {
+                random_edit(random, graph, matching, nb_parts);
+
+                int queried_part = 1 + random.nextInt(nb_parts);
+                assertEquals(max_matching_size(queried_part), matching.getMatchingSize(queried_part));
+                check_mates(matching, queried_part);
+            }
+        }
+    }
+
+    // A vertex of V out of range is ignored
+    @Test
+    public void activeOutOfRangeIsIgnored()
+    {
+        Random              random   = new Random(16);
+        PreferredCarsMatrix graph    = random_graph(random);
+        DynamicMatching     matching = new DynamicMatching(nb_u, nb_v, 1, graph);
+        matching.setActive(nb_v, true);
+        matching.setActive(-1, true);
+        assertEquals(0, matching.getMatchingSize(1));
+    }
+
+    private PreferredCarsMatrix random_graph(Random random)
+    {
+        int max_car_number = 2 + random.nextInt(random.nextBoolean() ? 40 : 150);
+        nb_u     = 5 + random.nextInt(60);
+        nb_v     = max_car_number + 1;
+        adjacent = new boolean[nb_u][nb_v];
+        part     = new int[nb_u];
+        active   = new boolean[nb_v];
+
+        PreferredCarsMatrix graph   = new PreferredCarsMatrix();
+        double              density = 0.5 * random.nextDouble();
+        graph.reset(nb_u, max_car_number);
+        for(int u = 0; u < nb_u; u++)
+        {
+            for(int v = 1; v < nb_v; v++)
+            {
+                if(random.nextDouble() < density)
+                {
+                    adjacent[u][v] = true;
+                    graph.restore(u, v);
+                }
+            }
+        }
+        return graph;
+    }
+
+    private void random_edit(Random random, PreferredCarsMatrix graph, DynamicMatching matching, int nb_parts)
+    {
+        int u = random.nextInt(nb_u);
+        int v = 1 + random.nextInt(nb_v - 1);
+        switch(random.nextInt(5))
+        {
+            case 0:
+                part[u] = random.nextInt(nb_parts + 1);
+                matching.setPart(u, part[u]);
+                break;
+            case 1:
+                active[v] = !active[v];
+                matching.setActive(v, active[v]);
+                break;
+            case 2:
+                graph.remove(u, v);
+                adjacent[u][v] = false;
+                matching.edgeRemoved(u, v);
+                break;
+            case 3:
+                graph.restore(u, v);
+                adjacent[u][v] = true;
+                matching.edgeInserted(u, v);
+                break;
+            default:
+                // As after a race: the matched edges of a few vertices, or of many, are removed
+                int nb_removed = (random.nextInt(3) == 0) ? 30 : 1;
+                for(int removed = 0; removed < nb_removed; removed++)
+                {
+                    u = random.nextInt(nb_u);
+                    int mate = matching.getMate(u);
+                    if(mate >= 0)
+                    {
+                        graph.remove(u, mate);
+                        adjacent[u][mate] = false;
+                        matching.edgeRemoved(u, mate);
+                    }
+                }
+                break;
+        }
+    }
+
+    // The mates of the part are distinct active vertices of V, through edges of the graph
+    private void check_mates(DynamicMatching matching, int queried_part)
+    {
+        boolean[] used       = new boolean[nb_v];
+        int       nb_matched = 0;
+        for(int u = 0; u < nb_u; u++)
+        {
+            int mate = matching.getMate(u);
+            if(part[u] == queried_part && mate >= 0)
+            {
+                assertTrue("vertex of V matched twice", !used[mate]);
+                assertTrue("vertex of V not active", active[mate]);
+                assertTrue("not an edge", adjacent[u][mate]);
+                used[mate] = true;
+                nb_matched++;
+            }
+        }
+        assertEquals(matching.getMatchingSize(queried_part), nb_matched);
+    }
+
+    // Size of a maximum matching of the part, solved from scratch by augmenting paths (Kuhn)
+    private int max_matching_size(int queried_part)
+    {
+        int[] mate_v = new int[nb_v];
+        int   size   = 0;
+        Arrays.fill(mate_v, -1);
+        for(int u = 0; u < nb_u; u++)
+        {
+            if(part[u] == queried_part && augment(u, mate_v, new boolean[nb_v]))
+            {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private boolean augment(int u, int[] mate_v, boolean[] visited)
+    {
+        for(int v = 1; v < nb_v; v++)
+        {
+            if(adjacent[u][v] && active[v] && !visited[v])
+            {
+                visited[v] = true;
+                if(mate_v[v] == -1 || augment(mate_v[v], mate_v, visited))
+                {
+                    mate_v[v] = u;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
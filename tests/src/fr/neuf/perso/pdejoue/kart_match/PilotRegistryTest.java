@@ -0,0 +1,216 @@
+/**
+ * KartMatch: PilotRegistryTest.java
+ *
+ *   Tests of the storage of the pilot names (PilotRegistry): random changes checked against a plain list, reload of
+ *   the text file and the journal, incomplete journal entry, and crash in the middle of a compaction.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PilotRegistryTest
+{
+    private static final int NB_OF_PILOTS    = 500;
+    private static final int NB_OF_CHANGES   = 2000;
+
+    private File              directory;
+    private File              names_file;
+    private File              journal_file;
+    private ArrayList<String> expected_names = new ArrayList<String>();    // Same changes, on a plain list
+    private int               name_counter   = 0;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = File.createTempFile("kartmatch", "");
+        directory.delete();
+        directory.mkdir();
+        names_file   = new File(directory, "pilotes.txt");
+        journal_file = new File(directory, "pilotes.journal");
+    }
+
+    @After
+    public void tearDown()
+    {
+        for(File file : directory.listFiles())
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void randomChangesAreReloaded() throws IOException
+    {
+        PilotRegistry registry = new PilotRegistry(names_file, journal_file);
+        registry.load();
+
+        Random random = new Random(18);
+        for(int change = 0; change < NB_OF_CHANGES; change++)
+        {
+            random_change(registry, random);
+            check_names(registry);
+        }
+        registry.sync();
+
+        check_names(load());
+    }
+
+    @Test
+    public void incompleteLastEntryIsIgnored() throws IOException
+    {
+        PilotRegistry registry = new PilotRegistry(names_file, journal_file);
+        registry.load();
+        set(registry, 3, "Zed");
+        registry.sync();
+        registry.set(4, "Yan");
+        registry.sync();
+
+        RandomAccessFile journal = new RandomAccessFile(journal_file, "rw");
+        journal.setLength(journal.length() - 2);
+        journal.close();
+
+        check_names(load());
+    }
+
+    // The process is killed after the compaction has replaced the text file, but before it has replaced the journal:
+    // the old journal, already included in the new text file, must not be replayed on it.
+    @Test
+    public void journalOfReplacedTextFileIsIgnored() throws IOException
+    {
+        PilotRegistry registry = new PilotRegistry(names_file, journal_file);
+        registry.load();
+
+        Random random = new Random(17);
+        for(int change = 0; change < 100; change++)
+        {
+            random_change(registry, random);
+        }
+        registry.remove(0);
+        expected_names.remove(0);
+        registry.sync();
+        byte[] old_journal = read(journal_file);
+
+        registry.compact();
+        registry.sync();
+        write(journal_file, old_journal);
+
+        check_names(load());
+
+        // The next changes are replayed on the new text file
+        PilotRegistry reloaded = load();
+        set(reloaded, 7, "After the crash");
+        reloaded.remove(1);
+        expected_names.remove(1);
+        reloaded.sync();
+        check_names(load());
+    }
+
+    // A journal written by an older version, without its first line, is replayed
+    @Test
+    public void journalWithoutChecksumIsReplayed() throws IOException
+    {
+        write(names_file, "Ann\nBob\nCid\n".getBytes("UTF-8"));
+        write(journal_file, "D 0\nS 2 Dan\n".getBytes("UTF-8"));
+        expected_names.add("Bob");
+        expected_names.add("Cid");
+        expected_names.add("Dan");
+
+        check_names(load());
+        check_names(load());
+    }
+
+    private void random_change(PilotRegistry registry, Random random)
+    {
+        int index = random.nextInt(NB_OF_PILOTS);
+        if(random.nextInt(10) == 0)
+        {
+            if(index < expected_names.size())
+            {
+                registry.remove(index);
+                expected_names.remove(index);
+            }
+        }
+        else
+        {
+            set(registry, index, (random.nextInt(4) == 0) ? "" : "Name " + name_counter++);
+        }
+    }
+
+    private void set(PilotRegistry registry, int index, String name)
+    {
+        registry.set(index, name);
+        while(expected_names.size() <= index)
+        {
+            expected_names.add("");
+        }
+        expected_names.set(index, name);
+    }
+
+    private PilotRegistry load() throws IOException
+    {
+        PilotRegistry registry = new PilotRegistry(names_file, journal_file);
+        registry.load();
+        registry.sync();
+        return registry;
+    }
+
+    private void check_names(PilotRegistry registry)
+    {
+        assertEquals(expected_names.size(), registry.size());
+        for(int index = 0; index < expected_names.size(); index++)
+        {
+            String name = expected_names.get(index);
+            assertEquals(name, registry.get(index));
+            if(!name.equals(""))
+            {
+                assertEquals(index, registry.indexOf(name));
+            }
+        }
+    }
+
+    private static byte[] read(File file) throws IOException
+    {
+        byte[]          content = new byte[(int)file.length()];
+        FileInputStream in      = new FileInputStream(file);
+        try
+        {
+            int length = 0;
+            while(length < content.length)
+            {
+                length += in.read(content, length, content.length - length);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return content;
+    }
+
+    private static void write(File file, byte[] content) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * KartMatch: RaceJournalTest.java
+ *
+ *   Tests of the journal of the championship (RaceJournal): reload of the header and of the races, incomplete last
+ *   record, and damaged header or records, which must never prevent the journal from being opened.
+ *
+ */
+package fr.neuf.perso.pdejoue.kart_match;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RaceJournalTest
+{
+    private static final int NB_OF_PILOTS   = 50;
+    private static final int MAX_NB_OF_CARS = 20;
+    private static final int NB_OF_GROUPS   = 3;
+    private static final int NB_OF_RACES    = 30;
+
+    private File                   file;
+    private ArrayList<Integer>     pilot_group = new ArrayList<Integer>();
+    private ArrayList<RaceDetails> races       = new ArrayList<RaceDetails>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("kartmatch", ".bin");
+
+        Random random = new Random(17);
+        for(int pilot_index = 0; pilot_index < NB_OF_PILOTS; pilot_index++)
+        {
+            pilot_group.add(1 + random.nextInt(NB_OF_GROUPS));
+        }
+        CarPool car_pool = new CarPool(MAX_NB_OF_CARS);
+        car_pool.selectAll();
+        car_pool.unselect(7);
+
+        RaceJournal journal = open();
+        journal.reset(NB_OF_PILOTS, MAX_NB_OF_CARS, NB_OF_GROUPS, car_pool, pilot_group);
+        for(int race_idx = 0; race_idx < NB_OF_RACES; race_idx++)
+        {
+            RaceDetails rd = random_race(random, race_idx);
+            journal.append(rd);
+            races.add(rd);
+        }
+        journal.close();
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void championshipIsReloaded() throws IOException
+    {
+        RaceJournal journal = open();
+        assertTrue(journal.open());
+        assertEquals(NB_OF_PILOTS, journal.getNbOfPilots());
+        assertEquals(MAX_NB_OF_CARS, journal.getMaxNbOfCars());
+        assertEquals(NB_OF_GROUPS, journal.getNbOfGroups());
+        for(int car_number = 1; car_number <= MAX_NB_OF_CARS; car_number++)
+        {
+            assertEquals(car_number != 7, journal.isCarSelected(car_number));
+        }
+        for(int pilot_index = 0; pilot_index < NB_OF_PILOTS; pilot_index++)
+        {
+            assertEquals((int)pilot_group.get(pilot_index), journal.getPilotGroup(pilot_index));
+        }
+        check_races(journal.readRaces(), NB_OF_RACES);
+        journal.close();
+    }
+
+    @Test
+    public void incompleteLastRecordIsDropped() throws IOException
+    {
+        set_length(file.length() - 3);
+
+        RaceJournal journal = open();
+        assertTrue(journal.open());
+        check_races(journal.readRaces(), NB_OF_RACES - 1);
+        journal.close();
+    }
+
+    // A size above the limits must not be allocated: the journal is ignored
+    @Test
+    public void nbOfPilotsOutOfRangeIsIgnored() throws IOException
+    {
+        write_int(8, Integer.MAX_VALUE);
+        assertFalse(open().open());
+    }
+
+    @Test
+    public void maxNbOfCarsOutOfRangeIsIgnored() throws IOException
+    {
+        write_int(12, MAX_NB_OF_CARS + 1);                          // Above the limit given to the journal by the test
+        assertFalse(open().open());
+    }
+
+    @Test
+    public void pilotGroupOutOfRangeIsIgnored() throws IOException
+    {
+        write_int(16, 1);                                           // Number of groups, below the groups of the pilots
+        assertFalse(open().open());
+    }
+
+    // The races are read up to the first damaged record, and the journal is truncated there
+    @Test
+    public void groupOutOfRangeTruncatesTheJournal() throws IOException
+    {
+        write_int(header_size() + 20 * record_size(), NB_OF_GROUPS + 1);
+        check_truncated(20);
+    }
+
+    @Test
+    public void carOutOfRangeTruncatesTheJournal() throws IOException
+    {
+        write_short(header_size() + 10 * record_size() + 16, 0x8000);   // Pilot 0: a repeat without a car number
+        write_short(header_size() + 25 * record_size() + 18, MAX_NB_OF_CARS + 1);
+        check_truncated(10);
+    }
+
+    private void check_truncated(int nb_of_races) throws IOException
+    {
+        RaceJournal journal = open();
+        assertTrue(journal.open());
+        check_races(journal.readRaces(), nb_of_races);
+        journal.close();
+
+        journal = open();
+        assertTrue(journal.open());
+        assertEquals(nb_of_races, journal.getNbOfRaces());
+        journal.close();
+    }
+
+    private RaceJournal open()
+    {
+        return new RaceJournal(file, NB_OF_PILOTS, MAX_NB_OF_CARS);
+    }
+
+    private RaceDetails random_race(Random random, int race_idx)
+    {
+        int           group_nb   = 1 + random.nextInt(NB_OF_GROUPS);
+        CarAssignment assignment = new CarAssignment(0, NB_OF_PILOTS);
+        for(int pilot_index = 0; pilot_index < NB_OF_PILOTS; pilot_index++)
+        {
+            if(pilot_group.get(pilot_index) == group_nb)
+            {
+                assignment.setCarOfPilot(pilot_index, 1 + random.nextInt(MAX_NB_OF_CARS), random.nextInt(5) == 0);
+            }
+        }
+        assignment.setSeed(random.nextLong());
+
+        RaceDetails rd = new RaceDetails();
+        rd.group_nb             = group_nb;
+        rd.race_nb              = race_idx + 1;
+        rd.seed                 = assignment.getSeed();
+        rd.pilot_to_car_mapping = assignment.freeze();
+        return rd;
+    }
+
+    private void check_races(ArrayList<RaceDetails> read_races, int nb_of_races)
+    {
+        assertEquals(nb_of_races, read_races.size());
+        for(int race_idx = 0; race_idx < nb_of_races; race_idx++)
+        {
+            RaceDetails expected = races.get(race_idx);
+            RaceDetails actual   = read_races.get(race_idx);
+            assertEquals(expected.group_nb, actual.group_nb);
+            assertEquals(expected.race_nb, actual.race_nb);
+            assertEquals(expected.seed, actual.seed);
+            for(int pilot_index = 0; pilot_index < NB_OF_PILOTS; pilot_index++)
+            {
+                assertEquals(expected.pilot_to_car_mapping.getCarOfPilot(pilot_index), actual.pilot_to_car_mapping.getCarOfPilot(pilot_index));
+                assertEquals(expected.pilot_to_car_mapping.isRepeat(pilot_index), actual.pilot_to_car_mapping.isRepeat(pilot_index));
+            }
+        }
+    }
+
+    private long header_size()
+    {
+        return file.length() - NB_OF_RACES * record_size();
+    }
+
+    // Size of a record: group number, race number, seed, then one short per pilot, padded to a multiple of 8 bytes
+    private static long record_size()
+    {
+        return 16 + ((2 * NB_OF_PILOTS + 7) & ~7);
+    }
+
+    private void set_length(long length) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        raf.close();
+    }
+
+    private void write_int(long position, int value) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(position);
+        raf.writeInt(value);
+        raf.close();
+    }
+
+    private void write_short(long position, int value) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(position);
+        raf.writeShort(value);
+        raf.close();
+    }
+}